@@ -1,5 +1,6 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 // **********************************************************************
 // Ast class (base class for all other kinds of nodes)
@@ -22,45 +23,52 @@ class SymbolTable {
 	public List<SymbolTable> children;
     public String currentFn;
 	
-	private Map<String,String> localVar, localParam;
+	// keyed on the interned name, see Interner
+	private IntMap<HIROperand> localVar, localParam;
 	private int localCnt, paramCnt, tempCnt;
+	// slots given to the temporaries by TempAllocator, -1 before it runs
+	private int allocatedTemp = -1;
 	
-	private static Map<String,String> globalVar, stringVar;
-	private static CodeBuffer codeString;
-	private static int globalCnt, stringCnt, funcCnt, labelCnt;
+	// labels, strings and visible globals; shared by all the tables of a function
+	private Namespace names;
+	// the compilation this table belongs to, which holds the globals
+	private CompileContext ctx;
 	
-	public static void initGlobal(){
-		globalCnt = stringCnt = funcCnt = labelCnt = 0;
-		codeString = new CodeBuffer();
-		globalVar = new HashMap<String, String> ();
-		stringVar = new HashMap<String, String> ();
-	}
-	
-    public SymbolTable() {
+    public SymbolTable(CompileContext ctx) {
 		localCnt = paramCnt = tempCnt = 0;
-		localVar = new HashMap<String, String>();
-		localParam = new HashMap<String, String>();
+		localVar = new IntMap<HIROperand>();
+		localParam = new IntMap<HIROperand>();
 		children = new ArrayList<SymbolTable>();
 		ancestor = null;
+		this.ctx = ctx;
+		names = ctx.programNames;
     }
 
     public SymbolTable(SymbolTable ancestor) {
-		this();
+		this(ancestor, ancestor.names);
+    }
+
+    public SymbolTable(SymbolTable ancestor, Namespace names) {
+		this(ancestor.ctx);
 		currentFn = ancestor.currentFn;
 		localCnt = ancestor.localCnt;
 		paramCnt = ancestor.paramCnt;
 		tempCnt = ancestor.tempCnt;
         this.ancestor = ancestor;
-		ancestor.children.add(this);
+        this.names = names;
+		// functions compiled in parallel all hang off the program table
+		synchronized (ancestor.children) {
+			ancestor.children.add(this);
+		}
     }
 
     public void enterVariable(Id name, Type type, Tag tag) {
 		if(tag == Tag.LOCAL){
-			localVar.put(name.lexeme(), "@"+String.valueOf(localCnt++));
+			localVar.put(name.id(), HIROperand.of(HIROperand.Kind.LOCAL, localCnt++));
 		}else if(tag == Tag.PARAM){
-			localParam.put(name.lexeme(), "%"+String.valueOf(paramCnt++));
+			localParam.put(name.id(), HIROperand.of(HIROperand.Kind.PARAM, paramCnt++));
 		}else if(tag == Tag.GLOBAL){
-			SymbolTable.globalVar.put(name.lexeme(), "$"+String.valueOf(SymbolTable.globalCnt++));
+			ctx.globalVar.put(name.id(), HIROperand.of(HIROperand.Kind.GLOBAL, ctx.globalCnt++));
 		}
     }
 
@@ -68,17 +76,12 @@ class SymbolTable {
         // Do nothing
     }
 
-    public String enterString(String s) {
-		if(stringVar.containsKey(s)) 
-            return stringVar.get(s);
-        String res = "?" + (SymbolTable.stringCnt++);
-		SymbolTable.codeString.append("str " + s);
-		stringVar.put(s,res);
-		return res;
+    public HIROperand enterString(String s) {
+        return names.enterString(s);
     }
 
     public int countGlobal() {
-        return SymbolTable.globalCnt;
+        return ctx.globalCnt;
     }
 
     public int countLocal() {
@@ -94,9 +97,23 @@ class SymbolTable {
 		return res;
 	}
 
+    // Variables and parameters entered in this table and the ones below it
+    public int countSymbols() {
+		int res = localVar.size() + localParam.size();
+		for(SymbolTable table : children)
+			res += table.countSymbols();
+		return res;
+    }
+
     public int countTemp() {
+        if (allocatedTemp >= 0)
+            return allocatedTemp;
         return countTempRecursive();
     }
+
+    public void setTempCount(int n) {
+        allocatedTemp = n;
+    }
 	
 	private int countTempRecursive(){
 		int res = tempCnt;
@@ -107,65 +124,309 @@ class SymbolTable {
 		return res;
 	}
 
-    public String newLabel() {
-        return "~" + (SymbolTable.labelCnt++);
+    public HIROperand newLabel() {
+        return names.newLabel();
     }
 	
-	public String newTemp(){
-		return "&" + (tempCnt++);
+	public HIROperand newTemp(){
+		return HIROperand.temp(tempCnt++);
 	}
 
-    public String lookup(Id name){
+    public HIROperand lookup(Id name){
         SymbolTable cur = this;
 		while(cur!=null){
-			if(cur.localVar.containsKey(name.lexeme()))
-				return cur.localVar.get(name.lexeme());
-			if(cur.localParam.containsKey(name.lexeme()))
-				return cur.localParam.get(name.lexeme());
+			HIROperand res = cur.localVar.get(name.id());
+			if(res != null)
+				return res;
+			res = cur.localParam.get(name.id());
+			if(res != null)
+				return res;
 			
 			cur = cur.ancestor;
 		}
 		
-		if(SymbolTable.globalVar.containsKey(name.lexeme()))
-			return SymbolTable.globalVar.get(name.lexeme());
-		
-		return null;
+		return names.lookupGlobal(name.id());
+    }
+
+    public CodeBuffer getConstantCode() {
+        return names.getConstantCode();
+    }
+
+    // A namespace for one function compiled apart from the others; it only
+    // sees the globals declared so far
+    public Namespace newFunctionNamespace() {
+        // functions with no global declared between them share the copy
+        if (ctx.snapshotCnt != ctx.globalCnt) {
+            ctx.globalSnapshot = new IntMap<HIROperand>(ctx.globalVar);
+            ctx.snapshotCnt = ctx.globalCnt;
+        }
+        return new Namespace(ctx.globalSnapshot);
+    }
+
+    public Namespace getNamespace() {
+        return names;
+    }
+}
+
+// Labels and string literals are numbered per Namespace. A sequential
+// compilation uses one for the whole program. In parallel mode every
+// function gets its own, which is merged into the program's afterwards:
+// its labels are moved after the ones already used and its strings are
+// renumbered, so the code comes out exactly as if compiled in sequence.
+class Namespace {
+    private int labelCnt;
+    private List<String> strings = new ArrayList<String>();
+    private Map<String, HIROperand> stringVar = new HashMap<String, HIROperand>();
+    private IntMap<HIROperand> globalVar;
+
+    // where this namespace ended up after merge()
+    private int labelBase;
+    private HIROperand[] stringMap;
+
+    // the globals looked up and what they were, when tracked for the cache
+    private Map<Integer, HIROperand> globalsUsed;
+
+    public Namespace(IntMap<HIROperand> globalVar) {
+        this.globalVar = globalVar;
+    }
+
+    public HIROperand newLabel() {
+        return HIROperand.label(labelCnt++);
+    }
+
+    public HIROperand enterString(String s) {
+        HIROperand res = stringVar.get(s);
+        if (res == null) {
+            res = HIROperand.of(HIROperand.Kind.STRING, strings.size());
+            strings.add(s);
+            stringVar.put(s, res);
+        }
+        return res;
+    }
+
+    public HIROperand lookupGlobal(int name) {
+        HIROperand res = globalVar.get(name);
+        if (globalsUsed != null)
+            globalsUsed.put(name, res);
+        return res;
+    }
+
+    public void trackGlobals() {
+        globalsUsed = new LinkedHashMap<Integer, HIROperand>();
+    }
+
+    public Map<Integer, HIROperand> getGlobalsUsed() {
+        return globalsUsed;
+    }
+
+    public int getLabelCount() {
+        return labelCnt;
+    }
+
+    public List<String> getStrings() {
+        return strings;
+    }
+
+    // The labels and strings of code compiled in a namespace like this one
+    // before, see CompileCache
+    public void restore(int labels, List<String> strings) {
+        labelCnt = labels;
+        for (String s : strings)
+            enterString(s);
     }
 
     public CodeBuffer getConstantCode() {
-        return SymbolTable.codeString;
+        CodeBuffer code = new CodeBuffer();
+        for (String s : strings)
+            code.append("str " + s);
+        return code;
+    }
+
+    // Number the labels and strings of fn after the ones of this namespace;
+    // must be called for the functions in source order
+    public void merge(Namespace fn) {
+        fn.labelBase = labelCnt;
+        labelCnt += fn.labelCnt;
+        fn.stringMap = new HIROperand[fn.strings.size()];
+        for (int i = 0; i < fn.strings.size(); i++)
+            fn.stringMap[i] = enterString(fn.strings.get(i));
+    }
+
+    // Whether merge() gave this namespace other numbers than its own
+    public boolean isMoved() {
+        boolean same = labelBase == 0;
+        for (int i = 0; i < stringMap.length && same; i++)
+            same = stringMap[i].n == i;
+        return !same;
+    }
+
+    // Rewrite code compiled in this namespace to the numbers given by merge()
+    public void relocate(HIRFunction fn) {
+        for (HIRInstr in : fn.code()) {
+            if (in.label != null)
+                in.label = relocate(in.label);
+            else if (in.op != null)
+                for (int i = 0; i < in.opr.length; i++)
+                    in.opr[i] = relocate(in.opr[i]);
+        }
+    }
+
+    private HIROperand relocate(HIROperand opr) {
+        if (opr.is(HIROperand.Kind.LABEL))
+            return HIROperand.label(opr.n + labelBase);
+        if (opr.is(HIROperand.Kind.STRING))
+            return stringMap[opr.n];
+        return opr;
     }
 }
 
+// CodeBuffer is a rope: appending another buffer links it instead of copying
+// its lines, and indentation is only applied when the rope is written out.
+// Parents therefore never re-copy the code of their children, and the whole
+// program is streamed line by line into the PrintWriter by output().
+//
+// Function bodies are made of instructions (HIRInstr), which instructions()
+// hands to the passes; the lines around them (func, funci, str, ...) are
+// plain text.
 class CodeBuffer {
-    private List<String> list;
+    // each entry is a String (one line), an HIRInstr, an Indent (a linked
+    // buffer) or an HIRFunction, printed as it is when the rope is written
+    // out
+    private List<Object> list;
 
     public CodeBuffer() {
-        list = new ArrayList<String>();
+        list = new ArrayList<Object>();
     }
 
     public void append(String s) {
         list.add(s);
     }
 
+    public void emit(HIROp op, HIROperand... opr) {
+        list.add(HIRInstr.of(op, opr));
+    }
+
+    public void label(HIROperand label) {
+        list.add(HIRInstr.label(label));
+    }
+
     public void append(CodeBuffer o) {
-        for (String s: o.list)
-            list.add(s);
+        if (o == null) return;
+        list.add(new Indent(o, ""));
     }
-	
+
 	public void appendTab(CodeBuffer o) {
         if (o == null) return;
-        for (String s: o.list)
-            list.add("    " + s);
+        list.add(new Indent(o, "    "));
     }
 
     public void appendLn() {
         append("");
     }
 
-    public void output(PrintWriter out) {
-        for (String s: list)
-            out.println(s);
+    // Replace the contents of this buffer with the given lines. Buffers that
+    // link this one see the new lines, so passes can rewrite code in place.
+    public void set(List<String> lines) {
+        list.clear();
+        list.addAll(lines);
+    }
+
+    // Replace the contents of this buffer with a function body the passes
+    // go on working on
+    public void set(HIRFunction fn) {
+        list.clear();
+        list.add(fn);
+    }
+
+    // The lines of the rope with their indentation applied
+    public List<String> lines() {
+        final List<String> lines = new ArrayList<String>();
+        walk(new LineSink() {
+            public void line(String indent, String s) {
+                lines.add(indent + s);
+            }
+        });
+        return lines;
+    }
+
+    // The instructions of a function body, in order
+    public List<HIRInstr> instructions() {
+        final List<HIRInstr> code = new ArrayList<HIRInstr>();
+        walk(new LineSink() {
+            void line(String indent, String s) {
+                throw new RuntimeException("not an instruction: " + s);
+            }
+
+            void instr(String indent, HIRInstr in) {
+                code.add(in);
+            }
+        });
+        return code;
+    }
+
+    public void output(final PrintWriter out) {
+        walk(new LineSink() {
+            public void line(String indent, String s) {
+                out.print(indent);
+                out.println(s);
+            }
+        });
+    }
+
+    private void walk(LineSink sink) {
+        // Walk the rope with an explicit stack, so deeply nested code does not
+        // cost any extra Java stack when it is written out
+        Deque<Frame> stack = new ArrayDeque<Frame>();
+        stack.push(new Frame(this, ""));
+        while (!stack.isEmpty()) {
+            Frame top = stack.peek();
+            if (top.pos == top.buffer.list.size()) {
+                stack.pop();
+                continue;
+            }
+            Object o = top.buffer.list.get(top.pos++);
+            if (o instanceof String) {
+                sink.line(top.indent, (String) o);
+            } else if (o instanceof HIRInstr) {
+                sink.instr(top.indent, (HIRInstr) o);
+            } else if (o instanceof HIRFunction) {
+                for (HIRInstr in : ((HIRFunction) o).code())
+                    sink.instr(top.indent, in);
+            } else {
+                Indent child = (Indent) o;
+                String indent = child.indent.isEmpty() ? top.indent : top.indent + child.indent;
+                stack.push(new Frame(child.buffer, indent));
+            }
+        }
+    }
+
+    private abstract static class LineSink {
+        abstract void line(String indent, String s);
+
+        void instr(String indent, HIRInstr in) {
+            line(indent, in.toString());
+        }
+    }
+
+    private static class Indent {
+        CodeBuffer buffer;
+        String indent;
+
+        Indent(CodeBuffer buffer, String indent) {
+            this.buffer = buffer;
+            this.indent = indent;
+        }
+    }
+
+    private static class Frame {
+        CodeBuffer buffer;
+        String indent;
+        int pos;
+
+        Frame(CodeBuffer buffer, String indent) {
+            this.buffer = buffer;
+            this.indent = indent;
+        }
     }
 }
 
@@ -176,49 +437,233 @@ class Program extends Ast {
         this.declList = declList;
     }
 
-    // Compile
-    public void compile(PrintWriter out) {
-        table = new SymbolTable();
-		table.initGlobal();
+    // Compile. When the context has a pool, the functions are compiled in
+    // parallel on it; the code is the same as the sequential one
+    public void compile(CompileContext ctx) {
+        table = new SymbolTable(ctx);
         declList.table = table;
-        declList.compile(Tag.GLOBAL);
+        if (ctx.cache != null)
+            declList.compileCached(ctx);
+        else if (ctx.pool == null)
+            declList.compile(Tag.GLOBAL);
+        else
+            declList.compileParallel(ctx.pool);
 
         code = new CodeBuffer();
         code.append(table.getConstantCode());
 		code.appendLn();
         code.append(String.format("entry main, %d", table.countGlobal()));
         code.append(declList.code);
+    }
 
+    // Rewrite the code of every function with the given optimizer
+    public void optimize(HIROptimizer optimizer) {
+        declList.optimize(optimizer);
+    }
+
+    // Renumber the temporaries of every function, see TempAllocator
+    public void allocateTemps() {
+        declList.allocateTemps();
+    }
+
+    public void output(PrintWriter out) {
+        // Stream the rope straight into the output file
         code.output(out);
     }
 }
 
+// **********************************************************************
+// The lists the parser collects the kids of DeclList, FormalsList,
+// StmtList and ActualList in. CUP 0.10k has no type parameters in the
+// types of nonterminals, so each list is a class of its own.
+// **********************************************************************
+class Decls extends ArrayList<Decl> {
+    private static final long serialVersionUID = 1L;
+}
+
+class FormalDecls extends ArrayList<FormalDecl> {
+    private static final long serialVersionUID = 1L;
+}
+
+class Stmts extends ArrayList<Stmt> {
+    private static final long serialVersionUID = 1L;
+}
+
+class Exps extends ArrayList<Exp> {
+    private static final long serialVersionUID = 1L;
+}
+
 // **********************************************************************
 // Decls
 // **********************************************************************
 class DeclList extends Ast {
-    // linked list of kids (Decls)
-    protected LinkedList decls;
+    // kids (Decls), copied out of the parser's list into an array of
+    // exactly their number when the list is reduced
+    protected Decl[] decls;
 
-    public DeclList(LinkedList decls) {
-        this.decls = decls;
+    public DeclList(List<Decl> decls) {
+        this.decls = decls.toArray(new Decl[decls.size()]);
     }
 
     public void compile(Tag tag) {
         code = new CodeBuffer();
-        ListIterator listIterator = decls.listIterator();
-        while (listIterator.hasNext()) {
-            Decl decl = (Decl) listIterator.next();
+        for (Decl decl : decls) {
             decl.table = table;
             decl.compile(tag);
 			code.appendLn();
             code.append(decl.code);
         }
     }
+
+    // Same as compile(Tag.GLOBAL) for the program's declarations. Globals are
+    // entered in source order first, then every function is compiled in a
+    // Namespace of its own on the pool, and the namespaces are merged back in
+    // source order.
+    public void compileParallel(ForkJoinPool pool) {
+        final List<FnDecl> fns = new ArrayList<FnDecl>();
+        for (Decl decl : decls) {
+            decl.table = table;
+            if (decl instanceof FnDecl) {
+                FnDecl fn = (FnDecl) decl;
+                fn.setNamespace(table.newFunctionNamespace());
+                fns.add(fn);
+            } else {
+                decl.compile(Tag.GLOBAL);
+            }
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final FnDecl fn : fns) {
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    fn.compile(Tag.GLOBAL);
+                    return null;
+                }
+            });
+        }
+        invokeAll(pool, tasks);
+
+        tasks.clear();
+        for (final FnDecl fn : fns) {
+            table.getNamespace().merge(fn.getNamespace());
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    fn.relocate();
+                    return null;
+                }
+            });
+        }
+        invokeAll(pool, tasks);
+
+        code = new CodeBuffer();
+        for (Decl decl : decls) {
+			code.appendLn();
+            code.append(decl.code);
+        }
+    }
+
+    // Same as compileParallel, but a function found in the context's cache
+    // is taken from there instead of being compiled (see CompileCache). The
+    // others are compiled, on the pool if there is one, and optimized right
+    // away, while their labels and strings are still numbered from 0 in their
+    // own namespace, which is how they are kept in the cache. Merging the
+    // namespaces in source order then numbers them all as a full build does.
+    public void compileCached(final CompileContext ctx) {
+        final CompileCache cache = ctx.cache;
+        List<FnDecl> fns = new ArrayList<FnDecl>();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        int cached = 0;
+        for (int i = 0; i < decls.length; i++) {
+            Decl decl = decls[i];
+            decl.table = table;
+            if (!(decl instanceof FnDecl)) {
+                decl.compile(Tag.GLOBAL);
+                continue;
+            }
+            final FnDecl fn = (FnDecl) decl;
+            final int index = i;
+            fn.setNamespace(table.newFunctionNamespace());
+            fns.add(fn);
+            CompileCache.Entry entry = cache.get(index, fn.getNamespace(), ctx);
+            if (entry != null) {
+                fn.restore(entry);
+                cached++;
+                continue;
+            }
+            fn.getNamespace().trackGlobals();
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    fn.compile(Tag.GLOBAL);
+                    if (ctx.optimize) {
+                        fn.optimize(new HIROptimizer());
+                        fn.allocateTemps();
+                    }
+                    cache.put(index, fn.entry(ctx));
+                    fn.finish();
+                    return null;
+                }
+            });
+        }
+        if (ctx.metrics != null) {
+            ctx.metrics.count("cachedFunctions", cached);
+            ctx.metrics.count("compiledFunctions", tasks.size());
+        }
+        if (ctx.pool != null) {
+            invokeAll(ctx.pool, tasks);
+        } else {
+            try {
+                for (Callable<Void> task : tasks)
+                    task.call();
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+        if (!tasks.isEmpty())
+            cache.prune();
+
+        for (FnDecl fn : fns) {
+            table.getNamespace().merge(fn.getNamespace());
+            fn.relocate();
+        }
+
+        code = new CodeBuffer();
+        for (Decl decl : decls) {
+			code.appendLn();
+            code.append(decl.code);
+        }
+    }
+
+    private static void invokeAll(ForkJoinPool pool, List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks))
+                f.get();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    public void optimize(HIROptimizer optimizer) {
+        for (Decl decl : decls)
+            decl.optimize(optimizer);
+    }
+
+    public void allocateTemps() {
+        for (Decl decl : decls)
+            decl.allocateTemps();
+    }
 }
 
 abstract class Decl extends Ast {
     public abstract void compile(Tag tag);
+
+    // Only function declarations carry code to optimize
+    public void optimize(HIROptimizer optimizer) {
+    }
+
+    public void allocateTemps() {
+    }
 }
 
 class VarDecl extends Decl {
@@ -241,6 +686,15 @@ class FnDecl extends Decl {
     private Id name;
     private FormalsList formalList;
     private FnBody body;
+    // the funci line, which changes when the temporaries are renumbered
+    private CodeBuffer header = new CodeBuffer();
+    // own labels and strings when compiled in parallel, see DeclList
+    private Namespace names;
+    // the code is final, taken from the cache or already optimized for it,
+    // and optimize() and allocateTemps() leave it alone
+    private boolean finished;
+    // the body as the passes work on it, see ir()
+    private HIRFunction ir;
 
     public FnDecl(Type type, Id name, FormalsList formalList, FnBody body) {
         this.type = type;
@@ -256,7 +710,7 @@ class FnDecl extends Decl {
         // We copy a new Symbol table, because with another Function declaration, we can have ...
         //... a local variable with the same type and name. Thus if just use the common symbol table,...
         //... we will encounter the duplication of usage for these variables. 
-        formalList.table = new SymbolTable(table);
+        formalList.table = names == null ? new SymbolTable(table) : new SymbolTable(table, names);
         formalList.compile();
 
         // The function body need the reference from the parameters list,...
@@ -269,9 +723,89 @@ class FnDecl extends Decl {
 		
         code = new CodeBuffer();
         code.append("func " + name.lexeme());
-        code.append(String.format("funci %d, %d", body.table.countLocal(), body.table.countTemp()));
+        code.append(header);
+        code.appendTab(body.code);
+        code.append("efunc " + name.lexeme());
+        setHeader();
+    }
+
+    public void setNamespace(Namespace names) {
+        this.names = names;
+    }
+
+    public Namespace getNamespace() {
+        return names;
+    }
+
+    // Renumber labels and strings once the namespace has been merged
+    public void relocate() {
+        if (names.isMoved())
+            names.relocate(ir());
+    }
+
+    // The instructions of the body as one function, the first time a pass
+    // needs it. The body is linked into code, so from then on the function
+    // is printed from it, once, when the program is written out.
+    private HIRFunction ir() {
+        if (ir == null) {
+            ir = new HIRFunction(body.code.instructions());
+            body.code.set(ir);
+        }
+        return ir;
+    }
+
+    public void finish() {
+        finished = true;
+    }
+
+    // The code of this function for the cache, compiled in its own namespace
+    // with the globals tracked, before relocate()
+    public CompileCache.Entry entry(CompileContext ctx) {
+        CompileCache.Entry entry = new CompileCache.Entry();
+        for (Map.Entry<Integer, HIROperand> e : names.getGlobalsUsed().entrySet()) {
+            entry.globals.add(ctx.interner.name(e.getKey()));
+            entry.globalSlots.add(e.getValue() == null ? null : e.getValue().toString());
+        }
+        entry.labels = names.getLabelCount();
+        entry.strings.addAll(names.getStrings());
+        entry.header = header.lines().get(0);
+        entry.code = body.code.instructions();
+        return entry;
+    }
+
+    // Take the code from the cache instead of compiling it
+    public void restore(CompileCache.Entry entry) {
+        names.restore(entry.labels, entry.strings);
+        ir = new HIRFunction(entry.code);
+        body.code.set(ir);
+        header.set(Arrays.asList(entry.header));
+        code = new CodeBuffer();
+        code.append("func " + name.lexeme());
+        code.append(header);
         code.appendTab(body.code);
         code.append("efunc " + name.lexeme());
+        finished = true;
+    }
+
+    private void setHeader() {
+        header.set(Arrays.asList(String.format("funci %d, %d", body.table.countLocal(), body.table.countTemp())));
+    }
+
+    @Override
+    public void optimize(HIROptimizer optimizer) {
+        if (finished)
+            return;
+        optimizer.optimize(ir());
+    }
+
+    @Override
+    public void allocateTemps() {
+        if (finished)
+            return;
+        TempAllocator allocator = new TempAllocator();
+        allocator.allocate(ir());
+        body.table.setTempCount(allocator.count());
+        setHeader();
     }
 }
 
@@ -294,18 +828,16 @@ class FnPreDecl extends Decl {
 }
 
 class FormalsList extends Ast {
-    // linked list of kids (FormalDecls)
-    private LinkedList formals;
+    // kids (FormalDecls), sized as DeclList's
+    private FormalDecl[] formals;
 
-    public FormalsList(LinkedList formals) {
-        this.formals = formals;
+    public FormalsList(List<FormalDecl> formals) {
+        this.formals = formals.toArray(new FormalDecl[formals.size()]);
     }
 
     public void compile() {
         code = new CodeBuffer();
-        ListIterator listIterator = formals.listIterator();
-        while (listIterator.hasNext()) {
-            FormalDecl decl = (FormalDecl) listIterator.next();
+        for (FormalDecl decl : formals) {
             decl.table = table;
 
             // Each parameter declaration will be added to the symbol table with tag Parameter
@@ -365,22 +897,22 @@ class FnBody extends Ast {
 }
 
 class StmtList extends Ast {
-    // linked list of kids (Stmts)
-    private LinkedList stmts;
-	public String nextLabel;
+    // kids (Stmts), sized as DeclList's
+    private Stmt[] stmts;
+	public HIROperand nextLabel;
 	
-    public StmtList(LinkedList stmts) {
-        this.stmts = stmts;
+    public StmtList(List<Stmt> stmts) {
+        this.stmts = stmts.toArray(new Stmt[stmts.size()]);
     }
 
     public void compile() {
         code = new CodeBuffer();
-        ListIterator listIterator = stmts.listIterator();
-        while (listIterator.hasNext()) {
-            Stmt stmt = (Stmt) listIterator.next();
+        for (int i = 0; i < stmts.length; i++) {
+            Stmt stmt = stmts[i];
             stmt.table = table;
+            boolean hasNext = i + 1 < stmts.length;
 
-            if (listIterator.hasNext()) 
+            if (hasNext) 
                 stmt.nextLabel = table.newLabel();
 			else 
                 // The next position of the last statement must be the same with...
@@ -392,8 +924,8 @@ class StmtList extends Ast {
 
             // Because at the end of each function call, it always returns back to where it was called,...
             //...thus we do not need to assign a label at the end of the statement list 
-            if (listIterator.hasNext()) 
-                code.append(stmt.nextLabel + ":");
+            if (hasNext) 
+                code.label(stmt.nextLabel);
         }
     }
 }
@@ -458,7 +990,7 @@ class Type extends Ast {
 // **********************************************************************
 abstract class Stmt extends Ast {
     public abstract void compile();
-    public String nextLabel;
+    public HIROperand nextLabel;
 }
 
 class AssignStmt extends Stmt {
@@ -480,7 +1012,7 @@ class AssignStmt extends Stmt {
 
         code = new CodeBuffer();
         code.append(exp.code);
-        code.append(String.format("move %s, %s", lhs.addr, exp.addr));
+        code.emit(HIROp.MOVE, lhs.addr, exp.addr);
     }
 }
 
@@ -497,10 +1029,8 @@ class IfStmt extends Stmt {
 
     @Override
     public void compile() {
-        exp.trueLabel = table.newLabel();
-        exp.falseLabel = nextLabel;
         exp.table = table;
-        exp.compile();
+        exp.compileCondition(table.newLabel(), nextLabel);
 
         declList.table = new SymbolTable(table);
         declList.compile(Tag.LOCAL);
@@ -513,7 +1043,7 @@ class IfStmt extends Stmt {
 
         code = new CodeBuffer();
         code.append(exp.code);
-        code.append(exp.trueLabel + ":");
+        code.label(exp.trueLabel);
         code.append(stmtList.code);
         // if( B ) S1 
 
@@ -540,10 +1070,8 @@ class IfElseStmt extends Stmt {
 
     @Override
     public void compile() {
-        exp.trueLabel = table.newLabel();
-        exp.falseLabel = table.newLabel();
         exp.table = table;
-        exp.compile();
+        exp.compileCondition(table.newLabel(), table.newLabel());
 
         declList1.table = new SymbolTable(table);
         declList1.compile(Tag.LOCAL);
@@ -561,10 +1089,10 @@ class IfElseStmt extends Stmt {
 
         code = new CodeBuffer();
         code.append(exp.code);
-        code.append(exp.trueLabel + ":");
+        code.label(exp.trueLabel);
         code.append(stmtList1.code);
-        code.append("jump " + nextLabel);
-        code.append(exp.falseLabel + ":");
+        code.emit(HIROp.JUMP, nextLabel);
+        code.label(exp.falseLabel);
         code.append(stmtList2.code);
         //if ( B ) S1 else S2
     }
@@ -577,17 +1105,15 @@ class WhileStmt extends Stmt {
 
     public WhileStmt(Exp exp, DeclList declList, StmtList stmtList) {
         this.exp = exp;
-        this.declList1 = declList1;
+        this.declList1 = declList;
         this.stmtList = stmtList;
     }
 
     @Override
     public void compile() {
-        String begin = table.newLabel();
-        exp.trueLabel = table.newLabel();
-        exp.falseLabel = nextLabel;
+        HIROperand begin = table.newLabel();
         exp.table = table;
-        exp.compile();
+        exp.compileCondition(table.newLabel(), nextLabel);
 
         declList1.table = new SymbolTable(table);
         declList1.compile(Tag.LOCAL);
@@ -597,11 +1123,11 @@ class WhileStmt extends Stmt {
         stmtList.compile();
 
         code = new CodeBuffer();
-        code.append(begin + ":");
+        code.label(begin);
         code.append(exp.code);
-        code.append(exp.trueLabel + ":");
+        code.label(exp.trueLabel);
         code.append(stmtList.code);
-        code.append("jump " + begin);
+        code.emit(HIROp.JUMP, begin);
     }
 }
 
@@ -623,16 +1149,17 @@ class ForStmt extends Stmt {
 
     @Override
     public void compile() {
-        String begin = table.newLabel();
+        HIROperand begin = table.newLabel();
 
-        init.nextLabel = begin;
-        init.table = table;
-        init.compile();
+        // init and incr are null when left out
+        if (init != null) {
+            init.nextLabel = begin;
+            init.table = table;
+            init.compile();
+        }
 
-        cond.trueLabel = table.newLabel();
-        cond.falseLabel = nextLabel;
         cond.table = table;
-        cond.compile();
+        cond.compileCondition(table.newLabel(), nextLabel);
 
         declList.table = new SymbolTable(table);
         declList.compile(Tag.LOCAL);
@@ -641,19 +1168,23 @@ class ForStmt extends Stmt {
 		stmtList.nextLabel = table.newLabel();
         stmtList.compile();
         
-        incr.nextLabel = begin;
-        incr.table = table;
-        incr.compile();
+        if (incr != null) {
+            incr.nextLabel = begin;
+            incr.table = table;
+            incr.compile();
+        }
 
         code = new CodeBuffer();
-        code.append(init.code);
-        code.append(begin + ":");
+        if (init != null)
+            code.append(init.code);
+        code.label(begin);
         code.append(cond.code);
-        code.append(cond.trueLabel + ":");
+        code.label(cond.trueLabel);
         code.append(stmtList.code);
-        code.append(stmtList.nextLabel + ":");
-        code.append(incr.code);
-        code.append("jump " + begin);
+        code.label(stmtList.nextLabel);
+        if (incr != null)
+            code.append(incr.code);
+        code.emit(HIROp.JUMP, begin);
     }
 }
 
@@ -683,12 +1214,12 @@ class ReturnStmt extends Stmt {
     public void compile() {
         code = new CodeBuffer();
         if (exp == null || exp.code == null) {
-            code.append("ret " + table.currentFn);
+            code.emit(HIROp.RET, HIROperand.name(table.currentFn));
         } else {
             exp.table = table;
             exp.compile();
             code.append(exp.code);
-            code.append(String.format("retf %s, %s", table.currentFn, exp.addr));
+            code.emit(HIROp.RETF, HIROperand.name(table.currentFn), exp.addr);
         }
     }
 }
@@ -700,10 +1231,29 @@ abstract class Exp extends Ast {
     public abstract int getLine();
     public abstract int getChar();
     
-    public String addr;
-    public String trueLabel;
-    public String falseLabel;
+    public HIROperand addr;
+    public HIROperand trueLabel;
+    public HIROperand falseLabel;
     public abstract void compile();
+
+    // Whether compile() ends in jumps to trueLabel and falseLabel when they
+    // are set, instead of leaving the value in addr
+    protected boolean jumps() {
+        return false;
+    }
+
+    // Compile as a condition: jump to trueLabel when the value is not 0 and
+    // to falseLabel when it is. An expression that does not jump by itself
+    // has its value tested.
+    public void compileCondition(HIROperand trueLabel, HIROperand falseLabel) {
+        this.trueLabel = trueLabel;
+        this.falseLabel = falseLabel;
+        compile();
+        if (!jumps()) {
+            code.emit(HIROp.JT, addr, trueLabel);
+            code.emit(HIROp.JUMP, falseLabel);
+        }
+    }
 }
 
 abstract class BasicExp extends Exp {
@@ -733,7 +1283,7 @@ class IntLit extends BasicExp {
 
     @Override
     public void compile() {
-        addr = String.valueOf(intVal);
+        addr = HIROperand.intLit(intVal);
     }
 }
 
@@ -757,16 +1307,22 @@ class StringLit extends BasicExp {
 
 class Id extends BasicExp {
     private String strVal;
+    private int id;     // the interned name, see Interner
 
-    public Id(int lineNum, int charNum, String strVal) {
+    public Id(int lineNum, int charNum, String strVal, int id) {
         super(lineNum, charNum);
         this.strVal = strVal;
+        this.id = id;
     }
 
     public String lexeme() {
         return strVal;
     }
 
+    public int id() {
+        return id;
+    }
+
     @Override
     public void compile() {
         addr = table.lookup(this);
@@ -807,7 +1363,7 @@ class CallExp extends Exp {
 
     public CallExp(Id name) {
         this.name = name;
-        this.actualList = new ActualList(new LinkedList());
+        this.actualList = new ActualList(Collections.<Exp>emptyList());
     }
 
     public int getLine() {
@@ -825,7 +1381,7 @@ class CallExp extends Exp {
         actualList.compile();
 		addr = table.newTemp();
 		code.append(actualList.code);
-        code.append(String.format("callf %s, %s, %d", addr, name.lexeme(), actualList.size()));
+        code.emit(HIROp.CALLF, addr, HIROperand.name(name.lexeme()), HIROperand.intLit(actualList.size()));
     }
 
     public void compile(Tag tag) {
@@ -836,44 +1392,42 @@ class CallExp extends Exp {
 		
 		//Custom for read and write
 		if(name.lexeme().equals("print") || name.lexeme().equals("printf")){
-			code.append("write " + actualList.getFirstExp());
+			code.emit(HIROp.WRITE, actualList.getFirstExp());
 			return;
 		}
 		
 		if(name.lexeme().equals("scan") || name.lexeme().equals("scanf")){
-			code.append("read " + actualList.getFirstExp());
+			code.emit(HIROp.READ, actualList.getFirstExp());
 			return;
 		}
 		
 		// Normal
         code.append(actualList.code);
         if (tag == Tag.CALL) {
-            code.append(String.format("call %s, %d", name.lexeme(), actualList.size()));
+            code.emit(HIROp.CALL, HIROperand.name(name.lexeme()), HIROperand.intLit(actualList.size()));
         }
         else {
             addr = table.newTemp();
-            code.append(String.format("callf %s, %s, %d", addr, name.lexeme(), actualList.size()));
+            code.emit(HIROp.CALLF, addr, HIROperand.name(name.lexeme()), HIROperand.intLit(actualList.size()));
         }
     }
 }
 
 class ActualList extends Ast {
-    // linked list of kids (Exps)
-    private LinkedList exps;
+    // kids (Exps), sized as DeclList's
+    private Exp[] exps;
 
-    public ActualList(LinkedList exps) {
-        this.exps = exps;
+    public ActualList(List<Exp> exps) {
+        this.exps = exps.toArray(new Exp[exps.size()]);
     }
 
     public int size() {
-        return exps.size();
+        return exps.length;
     }
 
-	public String getFirstExp(){
-		ListIterator listIterator = exps.listIterator();
-		if(listIterator.hasNext()){
-			Exp exp = (Exp) listIterator.next();
-			return exp.addr;
+	public HIROperand getFirstExp(){
+		if(exps.length > 0){
+			return exps[0].addr;
 		}
 		return null;
 	}
@@ -881,18 +1435,14 @@ class ActualList extends Ast {
     public void compile() {
         code = new CodeBuffer();
         
-        ListIterator listIterator = exps.listIterator();
-        while (listIterator.hasNext()) {
-            Exp exp = (Exp) listIterator.next();
+        for (Exp exp : exps) {
             exp.table = table;
             exp.compile();
             code.append(exp.code);
         }
 		int order = 0;
-		listIterator = exps.listIterator();
-        while (listIterator.hasNext()) {
-            Exp exp = (Exp) listIterator.next();
-            code.append(String.format("arg %s, %d", exp.addr, order++));
+        for (Exp exp : exps) {
+            code.emit(HIROp.ARG, exp.addr, HIROperand.intLit(order++));
         }
     }
 }
@@ -959,6 +1509,11 @@ abstract class BooleanExpr extends BinaryExp {
         return trueLabel != null && falseLabel != null;
     }
 
+    @Override
+    protected boolean jumps() {
+        return isBooleanExpr();
+    }
+
     @Override
     public void compile() {
         exp1.table = table;
@@ -983,8 +1538,50 @@ abstract class BooleanExpr extends BinaryExp {
         if (isBooleanExpr()) {
             addr = table.newTemp();
             finalStep();
-            code.append(String.format("jt %s, %s", addr, trueLabel));
-            code.append(String.format("jump %s", falseLabel));
+            code.emit(HIROp.JT, addr, trueLabel);
+            code.emit(HIROp.JUMP, falseLabel);
+        }
+    }
+
+    // && and || evaluate exp2 only when exp1 does not decide the result
+    // already: exp1 jumps straight to one of the labels of the whole
+    // expression, or on to exp2. As a value, the two labels set addr to 1
+    // and 0.
+    //
+    //     exp1 (true: next, false: falseLabel)         for &&
+    //     next:
+    //     exp2 (true: trueLabel, false: falseLabel)
+    //
+    // AndExp and OrExp compile only through here, never through compile()
+    // and finalStep() above.
+    protected void shortCircuit(boolean and) {
+        boolean value = !isBooleanExpr();
+        HIROperand t = value ? table.newLabel() : trueLabel;
+        HIROperand f = value ? table.newLabel() : falseLabel;
+        HIROperand next = table.newLabel();
+
+        exp1.table = table;
+        if (and)
+            exp1.compileCondition(next, f);
+        else
+            exp1.compileCondition(t, next);
+        exp2.table = table;
+        exp2.compileCondition(t, f);
+
+        code = new CodeBuffer();
+        code.append(exp1.code);
+        code.label(next);
+        code.append(exp2.code);
+
+        if (value) {
+            HIROperand end = table.newLabel();
+            addr = table.newTemp();
+            code.label(t);
+            code.emit(HIROp.MOVE, addr, HIROperand.intLit(1));
+            code.emit(HIROp.JUMP, end);
+            code.label(f);
+            code.emit(HIROp.MOVE, addr, HIROperand.intLit(0));
+            code.label(end);
         }
     }
 }
@@ -1005,7 +1602,7 @@ class UnaryMinusExp extends UnaryExp {
         addr = table.newTemp();
         code = new CodeBuffer();
         code.append(exp.code);
-        code.append(String.format("sub %s, 0, %s", addr, exp.addr));
+        code.emit(HIROp.SUB, addr, HIROperand.intLit(0), exp.addr);
     }
 }
 
@@ -1014,20 +1611,28 @@ class NotExp extends UnaryExp {
         super(exp);
     }
 
+    @Override
+    protected boolean jumps() {
+        return trueLabel != null && falseLabel != null;
+    }
+
     @Override
     public void compile() {
         exp.table = table;
+
+        // As a condition, exp jumps the other way
+        if (jumps()) {
+            exp.compileCondition(falseLabel, trueLabel);
+            code = exp.code;
+            return;
+        }
+
         exp.compile();
 
         addr = table.newTemp();
         code = new CodeBuffer();
         code.append(exp.code);
-        code.append(String.format("not %s, %s", addr, exp.addr));
-
-        if (trueLabel != null && falseLabel != null) {
-            exp.trueLabel = falseLabel;
-            exp.falseLabel = trueLabel;
-        }
+        code.emit(HIROp.NOT, addr, exp.addr);
     }
 }
 class AddrOfExp extends UnaryExp {
@@ -1062,7 +1667,7 @@ class PlusExp extends BinaryExp {
 
     @Override
     public void finalStep() {
-        code.append(String.format("add %s, %s, %s", addr, exp1.addr, exp2.addr));
+        code.emit(HIROp.ADD, addr, exp1.addr, exp2.addr);
     }
 }
 
@@ -1073,7 +1678,7 @@ class MinusExp extends BinaryExp {
 
     @Override
     public void finalStep() {
-        code.append(String.format("sub %s, %s, %s", addr, exp1.addr, exp2.addr));
+        code.emit(HIROp.SUB, addr, exp1.addr, exp2.addr);
     }
 }
 
@@ -1084,7 +1689,7 @@ class TimesExp extends BinaryExp {
 
     @Override
     public void finalStep() {
-        code.append(String.format("mult %s, %s, %s", addr, exp1.addr, exp2.addr));
+        code.emit(HIROp.MULT, addr, exp1.addr, exp2.addr);
     }
 }
 
@@ -1095,7 +1700,7 @@ class DivideExp extends BinaryExp {
 
     @Override
     public void finalStep() {
-        code.append(String.format("div %s, %s, %s", addr, exp1.addr, exp2.addr));
+        code.emit(HIROp.DIV, addr, exp1.addr, exp2.addr);
     }
 }
 
@@ -1106,29 +1711,41 @@ class ModuloExp extends BinaryExp {
 
     @Override
     public void finalStep() {
-        code.append(String.format("mod %s, %s, %s", addr, exp1.addr, exp2.addr));
+        code.emit(HIROp.MOD, addr, exp1.addr, exp2.addr);
     }
 }
 
+// Only ever compiled through shortCircuit, so there is no final step
 class AndExp extends BooleanExpr {
     public AndExp(Exp exp1, Exp exp2) {
         super(exp1, exp2);
     }
 
+    @Override
+    public void compile() {
+        shortCircuit(true);
+    }
+
     @Override
     public void finalStep() {
-        code.append(String.format("add %s, %s, %s", addr, exp1.addr, exp2.addr));
+        throw new RuntimeException("&& is only compiled by shortCircuit");
     }
 }
 
+// Only ever compiled through shortCircuit, so there is no final step
 class OrExp extends BooleanExpr {
     public OrExp(Exp exp1, Exp exp2) {
         super(exp1, exp2);
     }
 
+    @Override
+    public void compile() {
+        shortCircuit(false);
+    }
+
     @Override
     public void finalStep() {
-        code.append(String.format("or %s, %s, %s", addr, exp1.addr, exp2.addr));
+        throw new RuntimeException("|| is only compiled by shortCircuit");
     }
 }
 
@@ -1139,7 +1756,7 @@ class EqualsExp extends BooleanExpr {
 
     @Override
     public void finalStep() {
-        code.append(String.format("eq %s, %s, %s", addr, exp1.addr, exp2.addr));
+        code.emit(HIROp.EQ, addr, exp1.addr, exp2.addr);
     }
 }
 
@@ -1150,7 +1767,7 @@ class NotEqualsExp extends BooleanExpr {
 
     @Override
     public void finalStep() {
-        code.append(String.format("neq %s, %s, %s", addr, exp1.addr, exp2.addr));
+        code.emit(HIROp.NEQ, addr, exp1.addr, exp2.addr);
     }
 }
 
@@ -1161,7 +1778,7 @@ class LessExp extends BooleanExpr {
 
     @Override
     public void finalStep() {
-        code.append(String.format("lt %s, %s, %s", addr, exp1.addr, exp2.addr));
+        code.emit(HIROp.LT, addr, exp1.addr, exp2.addr);
     }
 }
 
@@ -1172,7 +1789,7 @@ class GreaterExp extends BooleanExpr {
 
     @Override
     public void finalStep() {
-        code.append(String.format("gt %s, %s, %s", addr, exp1.addr, exp2.addr));
+        code.emit(HIROp.GT, addr, exp1.addr, exp2.addr);
     }
 }
 
@@ -1183,7 +1800,7 @@ class LessEqExp extends BooleanExpr {
 
     @Override
     public void finalStep() {
-        code.append(String.format("lte %s, %s, %s", addr, exp1.addr, exp2.addr));
+        code.emit(HIROp.LTE, addr, exp1.addr, exp2.addr);
     }
 }
 
@@ -1194,6 +1811,6 @@ class GreaterEqExp extends BooleanExpr {
 
     @Override
     public void finalStep() {
-        code.append(String.format("gte %s, %s, %s", addr, exp1.addr, exp2.addr));
+        code.emit(HIROp.GTE, addr, exp1.addr, exp2.addr);
     }
 }
\ No newline at end of file
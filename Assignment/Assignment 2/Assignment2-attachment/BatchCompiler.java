@@ -0,0 +1,188 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+// **********************************************************************
+// BatchCompiler: compiles many SimpleC files in one run
+// (HIRCompiler -batch <dir|glob|manifest> [-jobs <n>]).
+//
+// The files are given as
+//
+//   a directory          every .C and .c file under it, compiled to a .hir
+//                        file next to it
+//   a glob               such as tests/*.C or src/**.c, the same, for the
+//                        files that match
+//   a manifest           a file of "<SimpleC_file> <HIR_File>" lines; blank
+//                        lines and lines starting with # are skipped, and
+//                        relative paths are relative to the manifest
+//
+// and are compiled on a pool of jobs threads. Every file gets its own
+// CompileContext, as every request of CompileServer does, and its
+// diagnostics and messages are kept until it is done; they are then printed
+// under the name of the file, a file at a time, in the order the files are
+// done. A summary with the number of files, the files per second and the
+// files that failed comes last.
+// **********************************************************************
+class BatchCompiler {
+    private List<String> options;
+    private String cacheDir;
+    private boolean metrics;
+    private String metricsJson;
+
+    public BatchCompiler(List<String> options, String cacheDir, boolean metrics, String metricsJson) {
+        this.options = options;
+        this.cacheDir = cacheDir;
+        this.metrics = metrics;
+        this.metricsJson = metricsJson;
+    }
+
+    // **********************************************************************
+    // The files: pairs of SimpleC file and HIR file
+    // **********************************************************************
+    public static List<String[]> files(String batch) throws IOException {
+        File file = new File(batch);
+        if (file.isDirectory())
+            return under(file.toPath(), null);
+        int glob = firstGlobChar(batch);
+        if (glob >= 0) {
+            int slash = batch.lastIndexOf('/', glob);
+            Path base = Paths.get(slash < 0 ? "." : slash == 0 ? "/" : batch.substring(0, slash));
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + batch.substring(slash + 1));
+            return under(base, matcher);
+        }
+        return manifest(file);
+    }
+
+    private static int firstGlobChar(String s) {
+        for (int i = 0; i < s.length(); i++)
+            if ("*?[{".indexOf(s.charAt(i)) >= 0)
+                return i;
+        return -1;
+    }
+
+    // The SimpleC files under base, or those whose path from base matches
+    private static List<String[]> under(final Path base, final PathMatcher matcher) throws IOException {
+        final List<String> sources = new ArrayList<String>();
+        Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+            public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) {
+                String name = p.getFileName().toString();
+                if (matcher == null ? name.endsWith(".C") || name.endsWith(".c") : matcher.matches(base.relativize(p)))
+                    sources.add(p.toString());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(sources);
+        List<String[]> res = new ArrayList<String[]>();
+        for (String source : sources) {
+            int dot = source.lastIndexOf('.');
+            String hir = (dot > source.lastIndexOf('/') ? source.substring(0, dot) : source) + ".hir";
+            res.add(new String[] {source, hir});
+        }
+        return res;
+    }
+
+    private static List<String[]> manifest(File file) throws IOException {
+        List<String[]> res = new ArrayList<String[]>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            String line;
+            int n = 0;
+            while ((line = in.readLine()) != null) {
+                n++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] words = line.split("\t");
+                if (words.length != 2)
+                    words = line.split("\\s+");
+                if (words.length != 2)
+                    throw new IOException(file + ":" + n + ": expected <SimpleC_file> <HIR_File>");
+                res.add(new String[] {resolve(dir, words[0].trim()), resolve(dir, words[1].trim())});
+            }
+        } finally {
+            in.close();
+        }
+        return res;
+    }
+
+    private static String resolve(File dir, String path) {
+        File f = new File(path);
+        return f.isAbsolute() ? path : new File(dir, path).getPath();
+    }
+
+    // **********************************************************************
+    // Compiling
+    // **********************************************************************
+
+    // What compiling one file came to
+    private static class Result {
+        String source;
+        boolean ok;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+    }
+
+    // Compile the files on jobs threads; returns whether all of them were
+    // compiled
+    public boolean run(List<String[]> files, int jobs) {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(jobs, files.size())));
+        CompletionService<Result> done = new ExecutorCompletionService<Result>(pool);
+        for (final String[] pair : files) {
+            done.submit(new Callable<Result>() {
+                public Result call() {
+                    return compile(pair[0], pair[1]);
+                }
+            });
+        }
+
+        List<String> failed = new ArrayList<String>();
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                Result r = done.take().get();
+                System.out.println(r.source + ":");
+                r.output.writeTo(System.out);
+                System.out.flush();
+                if (!r.ok)
+                    failed.add(r.source);
+            }
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            pool.shutdown();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d files in %.2f s (%.1f files/s), %d failed",
+                files.size(), seconds, files.size() / Math.max(seconds, 1e-9), failed.size()));
+        for (String source : failed)
+            System.out.println("  failed: " + source);
+        return failed.isEmpty();
+    }
+
+    // Compile one file, keeping all that it prints; an exception fails the
+    // file and not the batch
+    private Result compile(String source, String hir) {
+        Result r = new Result();
+        r.source = source;
+        PrintStream out = new PrintStream(r.output, true);
+        try {
+            CompileContext ctx = HIRCompiler.context(options, out);
+            if (cacheDir != null)
+                ctx.cache = new CompileCache(new File(cacheDir));
+            r.ok = HIRCompiler.compile(source, hir, ctx, out, out, metrics, metricsJson);
+        } catch (Exception ex) {
+            out.println("Exception occured: " + ex);
+        } catch (StackOverflowError ex) {
+            out.println("Exception occured: " + ex);
+        }
+        out.flush();
+        return r;
+    }
+}
@@ -5,7 +5,9 @@ import java_cup.runtime.*;
 // Main program to test the C-- parser.
 //
 // The program opens the input file (C-- source file), creates a scanner 
-// and a parser, and calls the parser and the checker.
+// and a parser, and calls the parser. There is no semantic checker in this
+// compiler (Program has no check()), so no semantic errors or warnings are
+// ever counted.
 // **********************************************************************
 public class Checker {
 
@@ -14,43 +16,63 @@ public class Checker {
     {
         String inName = "";
 
-        // check for command-line args
-        if (args.length == 1) {
-            inName = args[0];
+        // check for command-line args; -metrics and -metrics-json <file>
+        // report the phases as HIRCompiler does
+        boolean metrics = false;
+        String metricsJson = null;
+        int first = 0;
+        while (first < args.length - 1 && args[first].startsWith("-")) {
+            String option = args[first++];
+            if (option.equals("-metrics")) {
+                metrics = true;
+            } else if (option.equals("-metrics-json") && first < args.length - 1) {
+                metricsJson = args[first++];
+            } else {
+                System.err.println("Unknown option " + option);
+                System.exit(-1);
+            }
+        }
+        if (args.length - first == 1) {
+            inName = args[first];
         } else {
-            System.err.println("usage: Checker <input file>");
+            System.err.println("usage: Checker [-metrics] [-metrics-json <file>] <input file>");
             System.exit(-1);
         }
 
         // open input file
-        FileReader inFile = null;
+        SourceReader inFile = null;
         try {
-            inFile = new FileReader(inName);
-        } catch (FileNotFoundException ex) {
+            inFile = SourceReader.open(inName);
+        } catch (IOException ex) {
             System.err.println("File " + inName + " not found.");
             System.exit(-1);
         }
 
-        parser P = new parser(new Yylex(inFile));
+        CompileContext ctx = new CompileContext(System.out);
+        if (metrics || metricsJson != null)
+            ctx.metrics = new CompileMetrics("Checker", inName);
 
         Program program = null;
 
         try {
-            program = (Program) P.parse().value; // do the parse
+            program = HIRCompiler.parse(inFile, ctx); // do the parse
         } catch (Exception ex) {
             System.err.println("Exception occured during parse: " + ex);
             System.exit(-1);
         }
 
-        if (Errors.fatalError) {
+        // Syntax errors have already been reported
+        if (program == null || ctx.errors.fatalError) {
             System.err.println("Confused by earlier errors: aborting");
             System.exit(0);
         }
 
-        // Semantic checking
-        program.check();
-        
-        System.out.println("Semantic Error(s): " + Errors.semanticErrors
-                + ". Semantic Warning(s): " + Errors.semanticWarns + ".");
+        System.out.println("Semantic Error(s): " + ctx.errors.semanticErrors
+                + ". Semantic Warning(s): " + ctx.errors.semanticWarns + ".");
+
+        if (metrics)
+            ctx.metrics.print(System.err);
+        if (metricsJson != null)
+            ctx.metrics.appendJson(metricsJson);
     }
 }
@@ -0,0 +1,448 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.regex.*;
+import java.util.zip.CRC32;
+
+// **********************************************************************
+// CompileCache: the HIR of functions kept on disk between compilations,
+// so that only the functions that changed are compiled again
+// (HIRCompiler -cache <dir>).
+//
+// Every top-level declaration is fingerprinted by its tokens: their kinds,
+// the names of identifiers and string literals and the values of integer
+// literals, so changes to layout and comments do not count. The
+// fingerprint, with VERSION and whether the code is optimized, names the
+// file of the function in the cache directory.
+//
+// A function is kept the way DeclList.compileCached compiles it, in a
+// Namespace of its own: its final instructions with its labels and strings
+// numbered from 0, how many labels it used, its strings in order, its
+// funci line, and every global it looked up with the slot it found ($n,
+// or none). The entry is only used while all of those globals are still
+// in the same slots. Its namespace is then merged like any other, which
+// numbers its labels and strings as a full build does.
+//
+// The cache only speeds compilation up: an entry that cannot be read, or
+// that fails its checksum or the checks of its code, is compiled again,
+// and one that cannot be written is not kept. Entries are written to a
+// temporary file and renamed, so compilations sharing the directory never
+// see half an entry. A compilation that wrote entries prunes the directory
+// down to MAX_SIZE, dropping the entries used least recently.
+// **********************************************************************
+class CompileCache {
+    // changes whenever the code generated for the same tokens may change
+    static final int VERSION = 7;
+
+    private File dir;
+    private String[] keys;          // by top-level declaration
+
+    public CompileCache(File dir) {
+        this.dir = dir;
+        dir.mkdirs();
+    }
+
+    // One function, see above
+    static class Entry {
+        List<String> globals = new ArrayList<String>();
+        List<String> globalSlots = new ArrayList<String>();   // null when not a global
+        int labels;
+        List<String> strings = new ArrayList<String>();
+        String header;
+        List<HIRInstr> code;
+    }
+
+    // **********************************************************************
+    // Fingerprints
+    // **********************************************************************
+
+    // Fingerprint the top-level declarations of a source. Each one ends with
+    // a semicolon or a closing brace outside of any braces.
+    public void fingerprint(TokenStream tokens, CompileContext ctx) {
+        List<String> res = new ArrayList<String>();
+        MessageDigest md = null;
+        int depth = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            if (md == null)
+                md = digest(ctx.optimize);
+            int k = tokens.kind(i);
+            update(md, k);
+            if (k == sym.ID || k == sym.STRINGLITERAL) {
+                byte[] name = ctx.interner.name(tokens.value(i)).getBytes(StandardCharsets.UTF_8);
+                update(md, name.length);
+                md.update(name);
+            } else if (k == sym.INTLITERAL) {
+                update(md, tokens.value(i));
+            } else if (k == sym.LCURLY) {
+                depth++;
+            } else if (k == sym.RCURLY) {
+                depth--;
+            }
+            if (depth == 0 && (k == sym.SEMICOLON || k == sym.RCURLY)) {
+                res.add(hex(md.digest()));
+                md = null;
+            }
+        }
+        keys = res.toArray(new String[res.size()]);
+    }
+
+    private static MessageDigest digest(boolean optimize) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            update(md, VERSION);
+            update(md, optimize ? 1 : 0);
+            return md;
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void update(MessageDigest md, int v) {
+        md.update(new byte[] {(byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v});
+    }
+
+    private static String hex(byte[] b) {
+        StringBuilder sb = new StringBuilder();
+        for (byte x : b)
+            sb.append(String.format("%02x", x & 0xff));
+        return sb.toString();
+    }
+
+    // The file of top-level declaration decl, or null when the declarations
+    // were not fingerprinted
+    private File file(int decl) {
+        if (keys == null || decl >= keys.length)
+            return null;
+        return new File(dir, keys[decl]);
+    }
+
+    // **********************************************************************
+    // Entries
+    // **********************************************************************
+
+    // The entry of function declaration decl, if there is one that still
+    // fits the globals of names
+    public Entry get(int decl, Namespace names, CompileContext ctx) {
+        File file = file(decl);
+        if (file == null || !file.isFile())
+            return null;
+        Entry entry;
+        try {
+            entry = read(file);
+        } catch (IOException ex) {
+            return null;
+        // whatever else a damaged entry makes read() throw, it is a miss
+        } catch (RuntimeException ex) {
+            return null;
+        } catch (Error ex) {
+            return null;
+        }
+        for (int i = 0; i < entry.globals.size(); i++) {
+            HIROperand slot = names.lookupGlobal(ctx.interner.intern(entry.globals.get(i)));
+            String kept = entry.globalSlots.get(i);
+            if (slot == null ? kept != null : !slot.toString().equals(kept))
+                return null;
+        }
+        // used, for prune()
+        file.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    public void put(int decl, Entry entry) {
+        File file = file(decl);
+        if (file == null)
+            return;
+        try {
+            File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+            try {
+                write(tmp, entry);
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tmp.delete();
+            }
+        } catch (IOException ex) {
+            // not kept; the function is compiled again next time
+        }
+    }
+
+    // Delete the entries used least recently until the rest fit in MAX_SIZE,
+    // and the temporary files a compilation that died left behind. Only
+    // files named like entries are touched.
+    public void prune() {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        List<File> entries = new ArrayList<File>();
+        long stale = System.currentTimeMillis() - 60 * 60 * 1000;
+        for (File f : files) {
+            String name = f.getName();
+            if (name.matches("[0-9a-f]{64}"))
+                entries.add(f);
+            else if (name.matches("[0-9a-f]{64}.*\\.tmp") && f.lastModified() < stale)
+                f.delete();
+        }
+        final Map<File, Long> used = new HashMap<File, Long>();
+        for (File f : entries)
+            used.put(f, f.lastModified());
+        Collections.sort(entries, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Long.compare(used.get(b), used.get(a));
+            }
+        });
+        long size = 0;
+        for (File f : entries) {
+            size += f.length();
+            if (size > MAX_SIZE)
+                f.delete();
+        }
+    }
+
+    // **********************************************************************
+    // Entry files
+    //
+    // An entry file is MAGIC, VERSION, the CRC-32 of the rest and the rest:
+    // the parts of the Entry in order. Reading one checks the CRC, that no
+    // length or count goes past the end of the file, and then check() the
+    // code, so a damaged entry is a miss and never gets compiled in.
+    // **********************************************************************
+
+    private static final int MAGIC = 0x48495243;    // "HIRC"
+
+    // the most the entries in a directory take up together, and the largest
+    // entry that is read at all
+    static final long MAX_SIZE = 64 << 20;
+    static final long MAX_ENTRY = 16 << 20;
+
+    private static void write(File file, Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(entry.globals.size());
+        for (int i = 0; i < entry.globals.size(); i++) {
+            writeString(data, entry.globals.get(i));
+            data.writeBoolean(entry.globalSlots.get(i) != null);
+            if (entry.globalSlots.get(i) != null)
+                writeString(data, entry.globalSlots.get(i));
+        }
+        data.writeInt(entry.labels);
+        writeStrings(data, entry.strings);
+        writeString(data, entry.header);
+        data.writeInt(entry.code.size());
+        for (HIRInstr in : entry.code)
+            writeInstr(data, in);
+        data.flush();
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt((int) crc.getValue());
+            out.write(payload);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Entry read(File file) throws IOException {
+        if (file.length() > MAX_ENTRY)
+            throw new IOException(file + " is too large");
+        byte[] b = Files.readAllBytes(file.toPath());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(file + " is not a cache entry of this version");
+            int sum = in.readInt();
+            CRC32 crc = new CRC32();
+            crc.update(b, 12, b.length - 12);
+            if ((int) crc.getValue() != sum)
+                throw new IOException(file + " is damaged");
+            Entry entry = new Entry();
+            for (int n = count(in); n > 0; n--) {
+                entry.globals.add(readString(in));
+                entry.globalSlots.add(in.readBoolean() ? readString(in) : null);
+            }
+            entry.labels = in.readInt();
+            if (entry.labels < 0)
+                throw new IOException("bad label count " + entry.labels);
+            entry.strings = readStrings(in);
+            entry.header = readString(in);
+            int n = count(in);
+            entry.code = new ArrayList<HIRInstr>();
+            for (int i = 0; i < n; i++)
+                entry.code.add(readInstr(in));
+            if (in.available() != 0)
+                throw new IOException(file + " is too long");
+            check(entry);
+            return entry;
+        } catch (EOFException ex) {
+            throw new IOException(file + " is cut short");
+        }
+    }
+
+    // A count or length read from in, which cannot be more than the bytes
+    // left as every item takes at least one
+    private static int count(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > in.available())
+            throw new IOException("bad count " + n);
+        return n;
+    }
+
+    // Strings are written as their length and their UTF-8 bytes, as a string
+    // literal may be longer than writeUTF allows
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[count(in)];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> list) throws IOException {
+        out.writeInt(list.size());
+        for (String s : list)
+            writeString(out, s);
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int n = count(in);
+        List<String> list = new ArrayList<String>();
+        for (int i = 0; i < n; i++)
+            list.add(readString(in));
+        return list;
+    }
+
+    // An instruction is written as its op (-1 for a label) and its operands,
+    // each as its kind and its number or name
+    private static void writeInstr(DataOutputStream out, HIRInstr in) throws IOException {
+        if (in.label != null) {
+            out.writeByte(-1);
+            writeOperand(out, in.label);
+            return;
+        }
+        out.writeByte(in.op.ordinal());
+        out.writeByte(in.opr.length);
+        for (HIROperand opr : in.opr)
+            writeOperand(out, opr);
+    }
+
+    private static HIRInstr readInstr(DataInputStream in) throws IOException {
+        int op = in.readByte();
+        if (op == -1)
+            return HIRInstr.label(readOperand(in));
+        if (op < 0 || op >= HIROp.values().length)
+            throw new IOException("bad op " + op);
+        HIROperand[] opr = new HIROperand[in.readUnsignedByte()];
+        for (int i = 0; i < opr.length; i++)
+            opr[i] = readOperand(in);
+        return HIRInstr.of(HIROp.values()[op], opr);
+    }
+
+    private static void writeOperand(DataOutputStream out, HIROperand opr) throws IOException {
+        out.writeByte(opr.kind.ordinal());
+        if (opr.kind == HIROperand.Kind.NAME)
+            writeString(out, opr.name);
+        else
+            out.writeInt(opr.n);
+    }
+
+    private static HIROperand readOperand(DataInputStream in) throws IOException {
+        int kind = in.readByte();
+        if (kind < 0 || kind >= HIROperand.Kind.values().length)
+            throw new IOException("bad operand kind " + kind);
+        if (kind == HIROperand.Kind.NAME.ordinal())
+            return HIROperand.name(readString(in));
+        return HIROperand.of(HIROperand.Kind.values()[kind], in.readInt());
+    }
+
+    private static final Pattern FUNCI = Pattern.compile("funci (\\d{1,9}), (\\d{1,9})");
+
+    // The code of an entry must be what the code generator and the passes
+    // make of a function: every op with its operands (see shape()), labels
+    // and strings within the namespace of the function, locals and
+    // temporaries within its funci line and globals among those it looked
+    // up. (A jump may go to a label that is not defined: the end of a body
+    // has none.)
+    private static void check(Entry entry) throws IOException {
+        Matcher m = FUNCI.matcher(entry.header);
+        if (!m.matches())
+            throw new IOException("bad funci line " + entry.header);
+        int locals = Integer.parseInt(m.group(1));
+        int temps = Integer.parseInt(m.group(2));
+        Set<String> globals = new HashSet<String>();
+        for (String slot : entry.globalSlots)
+            if (slot != null)
+                globals.add(slot);
+        Set<HIROperand> defined = new HashSet<HIROperand>();
+        for (HIRInstr in : entry.code) {
+            if (in.label != null) {
+                if (!in.label.is(HIROperand.Kind.LABEL) || in.label.n < 0 || in.label.n >= entry.labels
+                        || !defined.add(in.label))
+                    throw new IOException("bad label " + in);
+                continue;
+            }
+            String shape = shape(in.op);
+            if (shape == null || shape.length() != in.opr.length)
+                throw new IOException("bad instruction " + in);
+            for (int i = 0; i < in.opr.length; i++) {
+                HIROperand opr = in.opr[i];
+                boolean ok;
+                switch (opr.kind) {
+                case TEMP: ok = opr.n < temps; break;
+                case LOCAL: ok = opr.n < locals; break;
+                case GLOBAL: ok = globals.contains(opr.toString()); break;
+                case STRING: ok = opr.n < entry.strings.size(); break;
+                case LABEL: ok = opr.n < entry.labels; break;
+                default: ok = true; break;
+                }
+                if (!ok || opr.n < 0 && opr.kind != HIROperand.Kind.INT && opr.kind != HIROperand.Kind.NAME
+                        || !fits(opr, shape.charAt(i)))
+                    throw new IOException("bad operand " + opr + " in " + in);
+            }
+        }
+    }
+
+    // The operands of op, one letter each: v a variable (written), x a value
+    // (read), l a label, f a function name and n a count. null for the
+    // array and record ops, which the code generator never emits.
+    private static String shape(HIROp op) {
+        if (op.isBinary())
+            return "vxx";
+        if (op.isUnary())
+            return "vx";
+        switch (op) {
+        case JT: case JF: return "xl";
+        case JEQ: case JNEQ: case JLT: case JLTE: return "xxl";
+        case JUMP: return "l";
+        case CALLF: return "vfn";
+        case READ: return "v";
+        case ARG: return "xn";
+        case CALL: return "fn";
+        case WRITE: return "x";
+        case RET: return "f";
+        case RETF: return "fx";
+        default: return null;
+        }
+    }
+
+    private static boolean fits(HIROperand opr, char shape) {
+        boolean variable = opr.is(HIROperand.Kind.TEMP) || opr.is(HIROperand.Kind.LOCAL)
+                || opr.is(HIROperand.Kind.PARAM) || opr.is(HIROperand.Kind.GLOBAL)
+                || opr.equals(HIROperand.NULL);
+        switch (shape) {
+        case 'v': return variable;
+        case 'x': return variable || opr.is(HIROperand.Kind.INT) || opr.is(HIROperand.Kind.STRING);
+        case 'l': return opr.is(HIROperand.Kind.LABEL);
+        case 'f': return opr.is(HIROperand.Kind.NAME) && !opr.equals(HIROperand.NULL);
+        default: return opr.is(HIROperand.Kind.INT) && opr.n >= 0;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// **********************************************************************
+// CompileContext: the state of one compilation.
+//
+// The scanner, the parser and the symbol tables all reach their shared
+// state (diagnostics, globals, label and string numbering) through the
+// context they were given instead of through statics, so any number of
+// compilations can run in the same JVM, one context each.
+// **********************************************************************
+class CompileContext {
+    Errors errors;
+    Interner interner = new Interner();   // identifiers and string literals
+
+    // Options
+    boolean optimize = true;
+    boolean fastScanner;            // scan with FastScanner instead of Yylex
+    boolean parallelScan;           // scan long sources in parts, see TokenStream
+    ForkJoinPool pool;              // compile functions in parallel when set
+    CompileMetrics metrics;         // measure the phases when set
+    CompileCache cache;             // keep the HIR of functions between runs when set
+
+    // Globals by interned name, see SymbolTable
+    IntMap<HIROperand> globalVar = new IntMap<HIROperand>();
+    IntMap<HIROperand> globalSnapshot = new IntMap<HIROperand>();
+    int globalCnt, funcCnt, snapshotCnt;
+
+    // Labels and strings of the whole program
+    Namespace programNames = new Namespace(globalVar);
+
+    public CompileContext(PrintStream diagnostics) {
+        errors = new Errors(diagnostics);
+    }
+}
@@ -0,0 +1,235 @@
+import java.io.*;
+import java.lang.management.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java_cup.runtime.*;
+
+// **********************************************************************
+// CompileMetrics: wall time, CPU time and allocated bytes of every phase
+// of one compilation, and counts of what the phases produced.
+//
+// A compilation is measured only when its CompileContext has metrics. The
+// report is either a table for people or a JSON line for tools:
+//
+//   {"tool":"HIRCompiler","file":"test.C","timestamp":1760000000000,
+//    "phases":{"scan":{"wallNanos":..,"cpuNanos":..,"allocBytes":..},..},
+//    "counts":{"tokens":..,"astNodes":..,..}}
+//
+// CPU time and allocation are those of the thread that runs the phase; with
+// -parallel, the work done by the pool's threads is not included.
+// **********************************************************************
+class CompileMetrics {
+    private String tool, file;
+    private ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    // phase -> {wall, cpu, alloc}
+    private Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+    private Map<String, Long> counts = new LinkedHashMap<String, Long>();
+
+    private String current;
+    private long wall, cpu, alloc;
+
+    public CompileMetrics(String tool, String file) {
+        this.tool = tool;
+        this.file = file;
+    }
+
+    // **********************************************************************
+    // Phases
+    // **********************************************************************
+    public void start(String phase) {
+        current = phase;
+        alloc = allocatedBytes();
+        cpu = cpuTime();
+        wall = System.nanoTime();
+    }
+
+    public void stop() {
+        long w = System.nanoTime() - wall;
+        long c = cpuTime() - cpu;
+        long a = allocatedBytes() - alloc;
+        long[] m = phases.get(current);
+        if (m == null)
+            phases.put(current, new long[] {w, c, a});
+        else {
+            m[0] += w;
+            m[1] += c;
+            m[2] += a;
+        }
+        current = null;
+    }
+
+    // Stop the current phase and start the next one
+    public void next(String phase) {
+        stop();
+        start(phase);
+    }
+
+    private long cpuTime() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+    }
+
+    private long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return 0;
+    }
+
+    // The parser pulls its tokens from the scanner as it goes. To time the
+    // two apart, the whole source is scanned into a TokenStream first and
+    // the parser is given the tokens from it.
+    public TokenStream scan(Reader source, CompileContext ctx) throws IOException {
+        start("scan");
+        TokenStream tokens = TokenStream.scan(source, ctx);
+        stop();
+        count("tokens", tokens.size());
+        return tokens;
+    }
+
+    // **********************************************************************
+    // Counts
+    // **********************************************************************
+    public void count(String name, long n) {
+        Long old = counts.get(name);
+        counts.put(name, old == null ? n : old + n);
+    }
+
+    public long getCount(String name) {
+        Long n = counts.get(name);
+        return n == null ? 0 : n;
+    }
+
+    // Nodes of the tree, found by following the fields of type Ast and the
+    // arrays of them. Nodes shared by two parents (the left hand side of a
+    // compound assignment) are counted once.
+    public void countNodes(Ast root) {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        Deque<Object> todo = new ArrayDeque<Object>();
+        todo.push(root);
+        long n = 0;
+        while (!todo.isEmpty()) {
+            Object o = todo.pop();
+            if (o instanceof Ast[]) {
+                for (Object e : (Ast[]) o)
+                    todo.push(e);
+                continue;
+            }
+            if (!(o instanceof Ast) || !seen.add(o))
+                continue;
+            n++;
+            for (Class<?> c = o.getClass(); c != Ast.class; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(f.getModifiers()))
+                        continue;
+                    Class<?> t = f.getType().isArray() ? f.getType().getComponentType() : f.getType();
+                    if (!Ast.class.isAssignableFrom(t))
+                        continue;
+                    try {
+                        f.setAccessible(true);
+                        Object v = f.get(o);
+                        if (v != null)
+                            todo.push(v);
+                    } catch (IllegalAccessException ex) {
+                        // not a child we can see
+                    }
+                }
+            }
+        }
+        count("astNodes", n);
+    }
+
+    // Symbols entered by the compile, and what the HIR of the program holds
+    public void countCode(Program program) {
+        count("symbols", program.table.countGlobal() + program.table.countSymbols());
+        long functions = 0, temps = 0, labels = 0, strings = 0, instructions = 0;
+        for (String line : program.code.lines()) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("entry ") || line.startsWith("efunc "))
+                continue;
+            if (line.endsWith(":"))
+                labels++;
+            else if (line.startsWith("str "))
+                strings++;
+            else if (line.startsWith("func "))
+                functions++;
+            else if (line.startsWith("funci "))
+                temps += Integer.parseInt(line.substring(line.indexOf(',') + 1).trim());
+            else
+                instructions++;
+        }
+        count("functions", functions);
+        count("strings", strings);
+        count("temps", temps);
+        count("labels", labels);
+        count("instructions", instructions);
+    }
+
+    // **********************************************************************
+    // Reports
+    // **********************************************************************
+    public void print(PrintStream out) {
+        out.println("Metrics for " + file);
+        out.println(String.format("  %-10s %10s %10s %12s", "phase", "wall ms", "cpu ms", "alloc KB"));
+        long[] total = new long[3];
+        for (Map.Entry<String, long[]> e : phases.entrySet()) {
+            long[] m = e.getValue();
+            out.println(String.format("  %-10s %10.3f %10.3f %12d", e.getKey(), m[0] / 1e6, m[1] / 1e6, m[2] / 1024));
+            for (int i = 0; i < 3; i++)
+                total[i] += m[i];
+        }
+        out.println(String.format("  %-10s %10.3f %10.3f %12d", "total", total[0] / 1e6, total[1] / 1e6, total[2] / 1024));
+        StringBuilder sb = new StringBuilder(" ");
+        for (Map.Entry<String, Long> e : counts.entrySet())
+            sb.append(' ').append(e.getKey()).append('=').append(e.getValue());
+        out.println(sb);
+    }
+
+    public String json() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"tool\":").append(quote(tool));
+        sb.append(",\"file\":").append(quote(file));
+        sb.append(",\"timestamp\":").append(System.currentTimeMillis());
+        sb.append(",\"phases\":{");
+        String sep = "";
+        for (Map.Entry<String, long[]> e : phases.entrySet()) {
+            long[] m = e.getValue();
+            sb.append(sep).append(quote(e.getKey())).append(":{\"wallNanos\":").append(m[0])
+              .append(",\"cpuNanos\":").append(m[1]).append(",\"allocBytes\":").append(m[2]).append('}');
+            sep = ",";
+        }
+        sb.append("},\"counts\":{");
+        sep = "";
+        for (Map.Entry<String, Long> e : counts.entrySet()) {
+            sb.append(sep).append(quote(e.getKey())).append(':').append(e.getValue());
+            sep = ",";
+        }
+        return sb.append("}}").toString();
+    }
+
+    // Append the JSON line to a file, so that runs can be compared over time.
+    // Compilations running together (see BatchCompiler) append one at a time.
+    public void appendJson(String target) throws IOException {
+        synchronized (CompileMetrics.class) {
+            Writer out = new FileWriter(target, true);
+            try {
+                out.write(json() + "\n");
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < ' ')
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,263 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// **********************************************************************
+// CompileServer: keeps one JVM (and its JIT-compiled scanner, parser and
+// code generator) alive and compiles SimpleC sources sent over a localhost
+// TCP connection. Every connection is served by its own thread and every
+// request gets its own CompileContext, so clients do not see each other.
+//
+// Protocol, one request after the other on a connection:
+//
+//   compile [-O0] [-parallel] [-fastscan] [-parallelscan] <n>\n
+//                                        followed by n bytes of source
+//   file [-O0] [-parallel] [-fastscan] [-parallelscan] <path>\n
+//                                        a source on the server's disk
+//   quit\n
+//
+// Every request is answered with
+//
+//   ok|failed <micros> <d> <h>\n         followed by d bytes of diagnostics
+//                                        and h bytes of HIR
+//   error <message>\n                    for a request that makes no sense;
+//                                        after a bad length (negative, or
+//                                        over MAX_SOURCE) the server closes
+//                                        the connection
+//
+// where micros is the time the server spent on the request. The scanner
+// and parser tables are static in Yylex and parser, so every request
+// reuses them.
+// **********************************************************************
+class CompileServer {
+    private ServerSocket socket;
+    private ExecutorService workers = Executors.newCachedThreadPool();
+    private AtomicLong requests = new AtomicLong();
+
+    // the longest source a compile request may send, in bytes
+    static final int MAX_SOURCE = 256 << 20;
+
+    public CompileServer(int port) throws IOException {
+        socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    public void serve() throws IOException {
+        while (true) {
+            final Socket client = socket.accept();
+            workers.execute(new Runnable() {
+                public void run() {
+                    handle(client);
+                }
+            });
+        }
+    }
+
+    private void handle(Socket client) {
+        try {
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            OutputStream out = new BufferedOutputStream(client.getOutputStream());
+            String line;
+            while ((line = readLine(in)) != null) {
+                String[] words = line.trim().split("\\s+");
+                if (words[0].equals("quit"))
+                    break;
+                if (!words[0].equals("compile") && !words[0].equals("file") || words.length < 2) {
+                    reply(out, "error unknown request: " + line);
+                    continue;
+                }
+
+                // Options, then the length or the path
+                int i = 1;
+                boolean optimize = true, fastScanner = false, parallelScan = false;
+                ForkJoinPool pool = null;
+                for (; i < words.length - 1; i++) {
+                    if (words[i].equals("-O0"))
+                        optimize = false;
+                    else if (words[i].equals("-parallel"))
+                        pool = ForkJoinPool.commonPool();
+                    else if (words[i].equals("-fastscan"))
+                        fastScanner = true;
+                    else if (words[i].equals("-parallelscan"))
+                        parallelScan = true;
+                    else if (!words[i].equals("-O"))
+                        break;
+                }
+                String arg = join(words, i);
+
+                byte[] source;
+                if (words[0].equals("compile")) {
+                    int n;
+                    try {
+                        n = Integer.parseInt(arg);
+                    } catch (NumberFormatException ex) {
+                        n = -1;
+                    }
+                    // the source that should follow cannot be skipped, so
+                    // the connection is over either way
+                    if (n < 0 || n > MAX_SOURCE) {
+                        reply(out, "error bad length: " + arg);
+                        break;
+                    }
+                    source = new byte[n];
+                    if (!readFully(in, source))
+                        break;
+                } else {
+                    File file = new File(arg);
+                    if (!file.isFile()) {
+                        reply(out, "error File " + arg + " not found!");
+                        continue;
+                    }
+                    source = readFile(file);
+                }
+
+                long start = System.nanoTime();
+                ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+                CompileContext ctx = new CompileContext(new PrintStream(diagnostics, true, "UTF-8"));
+                ctx.optimize = optimize;
+                ctx.pool = pool;
+                ctx.fastScanner = fastScanner;
+                ctx.parallelScan = parallelScan;
+                String hir = compile(source, ctx);
+                long micros = (System.nanoTime() - start) / 1000;
+
+                byte[] diag = diagnostics.toByteArray();
+                byte[] code = hir == null ? new byte[0] : hir.getBytes(StandardCharsets.UTF_8);
+                out.write(((hir == null ? "failed" : "ok") + " " + micros + " " + diag.length + " "
+                        + code.length + "\n").getBytes(StandardCharsets.UTF_8));
+                out.write(diag);
+                out.write(code);
+                out.flush();
+
+                System.err.println(String.format("#%d %s %d bytes: %.3f ms", requests.incrementAndGet(),
+                        hir == null ? "failed" : "ok", source.length, micros / 1000.0));
+            }
+        } catch (IOException ex) {
+            System.err.println("Connection lost: " + ex.getMessage());
+        } finally {
+            try {
+                client.close();
+            } catch (IOException ex) {
+                // nothing left to do with it
+            }
+        }
+    }
+
+    // The HIR, or null when the source has errors (they are in the context)
+    private static String compile(byte[] source, CompileContext ctx) {
+        try {
+            Program program = HIRCompiler.parse(new SourceReader(ByteBuffer.wrap(source)), ctx);
+            if (program == null || ctx.errors.fatalError)
+                return null;
+            StringWriter hir = new StringWriter();
+            PrintWriter writer = new PrintWriter(hir);
+            HIRCompiler.generate(program, writer, ctx);
+            writer.flush();
+            return hir.toString();
+        } catch (Exception ex) {
+            ctx.errors.fatal(0, 0, "Exception occured during compile: " + ex);
+            return null;
+        } catch (StackOverflowError ex) {
+            // a source nested too deeply for the recursive code generator
+            ctx.errors.fatal(0, 0, "Exception occured during compile: " + ex);
+            return null;
+        }
+    }
+
+    // **********************************************************************
+    // Client side, used by HIRCompiler -connect
+    // **********************************************************************
+    public static boolean request(int port, List<String> options, File source, File target)
+            throws IOException {
+        byte[] bytes = readFile(source);
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            StringBuilder header = new StringBuilder("compile");
+            for (String option : options)
+                header.append(' ').append(option);
+            header.append(' ').append(bytes.length).append('\n');
+            out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+            out.write(bytes);
+            out.write("quit\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            String line = readLine(in);
+            if (line == null || line.startsWith("error")) {
+                System.err.println(line == null ? "No answer from the server" : line);
+                return false;
+            }
+            String[] words = line.split(" ");
+            byte[] diag = new byte[Integer.parseInt(words[2])];
+            byte[] code = new byte[Integer.parseInt(words[3])];
+            readFully(in, diag);
+            readFully(in, code);
+            System.out.print(new String(diag, StandardCharsets.UTF_8));
+            if (!words[0].equals("ok"))
+                return false;
+
+            OutputStream file = new FileOutputStream(target);
+            file.write(code);
+            file.close();
+            System.err.println(String.format("Server time: %.3f ms", Long.parseLong(words[1]) / 1000.0));
+            return true;
+        } finally {
+            socket.close();
+        }
+    }
+
+    // **********************************************************************
+    // Helpers
+    // **********************************************************************
+    private static void reply(OutputStream out, String s) throws IOException {
+        out.write((s + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static String join(String[] words, int from) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < words.length; i++)
+            sb.append(i == from ? "" : " ").append(words[i]);
+        return sb.toString();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n')
+            line.write(c);
+        if (c == -1 && line.size() == 0)
+            return null;
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static boolean readFully(InputStream in, byte[] buf) throws IOException {
+        int off = 0;
+        while (off < buf.length) {
+            int n = in.read(buf, off, buf.length - off);
+            if (n < 0)
+                return false;
+            off += n;
+        }
+        return true;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+}
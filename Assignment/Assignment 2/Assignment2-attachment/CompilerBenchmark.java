@@ -0,0 +1,442 @@
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+// **********************************************************************
+// CompilerBenchmark: microbenchmarks for the phases of the compiler.
+//
+// It works the way JMH does, without needing JMH on the class path:
+// every benchmark runs warmup iterations and then measured iterations of
+// a fixed duration, and reports the average time per operation with its
+// error (99.9% confidence) and the bytes allocated per operation, which
+// is what the JMH GC profiler reports as gc.alloc.rate.norm.
+//
+// Benchmarks:
+//   scan      run Yylex over the source
+//   tokens    scan the source into a TokenStream
+//   scanfile  run Yylex over the source in a file, read with a FileReader
+//   scanmapped  the same, with the file mapped and read by a SourceReader
+//   tokensmapped  scan the mapped file into a TokenStream
+//   fastscan  run FastScanner over the source
+//   fasttokens  scan the source into a TokenStream with FastScanner
+//   partokens  scan the source into a TokenStream in parts on the common
+//             pool (sources of 512K characters or more, on more than one
+//             core; otherwise the same as tokens)
+//   parse     scan and parse the source into a Program
+//   compile   Program.compile (the Program is parsed outside the timing)
+//   optimize  HIROptimizer and TempAllocator on a compiled Program
+//   endtoend  parse, compile, optimize and write the HIR out
+//
+// There is no check benchmark: this compiler has no semantic checking pass
+// (Program has no check(), see Checker), so there is nothing to time.
+//
+// Inputs are generated in one of five shapes, scaled by a size:
+//   functions  many small functions
+//   nesting    deeply nested if/else and for statements
+//   exprs      long arithmetic and boolean expressions
+//   strings    many string literals, half of them repeated
+//   generated  a SimpleCGenerator program of size KB (seed 1)
+//
+// With -footprint nothing is timed: every input is parsed and the heap the
+// Program keeps alive is measured after a full GC, with its number of
+// nodes, to see what the tree costs in memory.
+//
+// usage: CompilerBenchmark [-b scan,parse,...] [-shape functions,...]
+//                          [-size 10,100,...] [-wi n] [-i n] [-time ms]
+//                          [-footprint]
+// **********************************************************************
+public class CompilerBenchmark {
+    static final String[] BENCHMARKS = {"scan", "tokens", "scanfile", "scanmapped", "tokensmapped", "fastscan", "fasttokens", "partokens", "parse", "compile", "optimize", "endtoend"};
+    static final String[] SHAPES = {"functions", "nesting", "exprs", "strings", "generated"};
+
+    // keeps the JIT from discarding the work
+    static volatile long sink;
+
+    private int warmups = 3, iterations = 5;
+    private long iterationNanos = 1000000000L;
+    private com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        CompilerBenchmark bench = new CompilerBenchmark();
+        List<String> benchmarks = Arrays.asList(BENCHMARKS);
+        List<String> shapes = Arrays.asList(SHAPES);
+        List<String> sizes = Arrays.asList("10", "100");
+        boolean footprint = false;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-footprint")) {
+                footprint = true;
+            } else if (i + 1 >= args.length) {
+                usage();
+            } else if (arg.equals("-b")) {
+                benchmarks = Arrays.asList(args[++i].split(","));
+            } else if (arg.equals("-shape")) {
+                shapes = Arrays.asList(args[++i].split(","));
+            } else if (arg.equals("-size")) {
+                sizes = Arrays.asList(args[++i].split(","));
+            } else if (arg.equals("-wi")) {
+                bench.warmups = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-i")) {
+                bench.iterations = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-time")) {
+                bench.iterationNanos = Long.parseLong(args[++i]) * 1000000L;
+            } else {
+                usage();
+            }
+        }
+
+        if (footprint) {
+            System.out.println(String.format("%-10s %6s %10s %10s %14s %10s",
+                    "Shape", "Size", "Source B", "Nodes", "Retained B", "B/node"));
+            for (String shape : shapes) {
+                for (String size : sizes) {
+                    String source = source(shape, Integer.parseInt(size));
+                    long[] res = footprint(source);
+                    System.out.println(String.format("%-10s %6s %10d %10d %14d %10.1f",
+                            shape, size, source.length(), res[1], res[0], (double) res[0] / res[1]));
+                }
+            }
+            return;
+        }
+
+        System.out.println(String.format("%-12s %-10s %6s %5s %12s %10s %6s %14s",
+                "Benchmark", "Shape", "Size", "Cnt", "Score", "Error", "Units", "alloc B/op"));
+        for (String shape : shapes) {
+            for (String size : sizes) {
+                String source = source(shape, Integer.parseInt(size));
+                for (String name : benchmarks) {
+                    double[] res = bench.run(name, source);
+                    System.out.println(String.format("%-12s %-10s %6s %5d %12.3f %10.3f %6s %14.0f",
+                            name, shape, size, bench.iterations, res[0], res[1], "ms/op", res[2]));
+                }
+            }
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: CompilerBenchmark [-b scan,parse,...] [-shape functions,...]"
+                + " [-size 10,100,...] [-wi n] [-i n] [-time ms] [-footprint]");
+        System.exit(-1);
+    }
+
+    // **********************************************************************
+    // Running
+    // **********************************************************************
+
+    // One operation; setup() is not timed, measure() is
+    private abstract static class Op {
+        void setup() throws Exception {
+        }
+
+        abstract long measure() throws Exception;
+    }
+
+    // Average ms/op, its error, and allocated bytes/op
+    private double[] run(String name, String source) throws Exception {
+        Op op = op(name, source);
+        for (int i = 0; i < warmups; i++)
+            iteration(op);
+        double[] scores = new double[iterations];
+        double alloc = 0;
+        for (int i = 0; i < iterations; i++) {
+            double[] it = iteration(op);
+            scores[i] = it[0];
+            alloc += it[1];
+        }
+        double mean = 0;
+        for (double s : scores)
+            mean += s;
+        mean /= scores.length;
+        double var = 0;
+        for (double s : scores)
+            var += (s - mean) * (s - mean);
+        double error = scores.length < 2 ? Double.NaN
+                : student999(scores.length - 1) * Math.sqrt(var / (scores.length - 1)) / Math.sqrt(scores.length);
+        return new double[] {mean, error, alloc / iterations};
+    }
+
+    private double[] iteration(Op op) throws Exception {
+        long thread = Thread.currentThread().getId();
+        long timed = 0, allocated = 0, ops = 0;
+        long end = System.nanoTime() + iterationNanos;
+        do {
+            op.setup();
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            sink += op.measure();
+            timed += System.nanoTime() - start;
+            allocated += threads.getThreadAllocatedBytes(thread) - bytes;
+            ops++;
+        } while (System.nanoTime() < end);
+        return new double[] {timed / 1e6 / ops, (double) allocated / ops};
+    }
+
+    // **********************************************************************
+    // Footprint
+    // **********************************************************************
+
+    // keeps the Program alive while the heap is measured
+    static Object held;
+
+    // The bytes of heap a parsed Program keeps alive, and its nodes. The
+    // smallest of a few measurements, to keep out garbage that a GC happened
+    // to leave.
+    private static long[] footprint(String source) throws Exception {
+        long retained = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long before = usedHeap();
+            held = HIRCompiler.parse(new StringReader(source), context());
+            long after = usedHeap();
+            retained = Math.min(retained, after - before);
+            held = null;
+        }
+        CompileMetrics metrics = new CompileMetrics("CompilerBenchmark", "footprint");
+        metrics.countNodes(HIRCompiler.parse(new StringReader(source), context()));
+        return new long[] {retained, metrics.getCount("astNodes")};
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            memory.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+    // Two-sided 99.9% quantile of Student's t distribution
+    private static double student999(int df) {
+        double[] t = {636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59,
+                      4.44, 4.32, 4.22, 4.14, 4.07, 4.01, 3.97, 3.92, 3.88, 3.85};
+        return df <= t.length ? t[df - 1] : 3.29;
+    }
+
+    private Op op(String name, final String source) throws IOException {
+        if (name.equals("scan")) {
+            return new Op() {
+                long measure() throws Exception {
+                    Yylex lexer = new Yylex(new StringReader(source), context());
+                    long n = 0;
+                    while (lexer.next_token().sym != sym.EOF)
+                        n++;
+                    return n;
+                }
+            };
+        }
+        if (name.equals("tokens")) {
+            return new Op() {
+                long measure() throws Exception {
+                    return TokenStream.scan(new StringReader(source), context()).size();
+                }
+            };
+        }
+        if (name.equals("fastscan")) {
+            return new Op() {
+                long measure() throws Exception {
+                    FastScanner scanner = new FastScanner(new StringReader(source), context());
+                    long n = 0;
+                    while (scanner.next_token().sym != sym.EOF)
+                        n++;
+                    return n;
+                }
+            };
+        }
+        if (name.equals("fasttokens")) {
+            return new Op() {
+                long measure() throws Exception {
+                    CompileContext ctx = context();
+                    ctx.fastScanner = true;
+                    return TokenStream.scan(new StringReader(source), ctx).size();
+                }
+            };
+        }
+        if (name.equals("partokens")) {
+            return new Op() {
+                long measure() throws Exception {
+                    CompileContext ctx = context();
+                    ctx.parallelScan = true;
+                    return TokenStream.scan(new StringReader(source), ctx).size();
+                }
+            };
+        }
+        if (name.equals("scanfile") || name.equals("scanmapped")) {
+            final String file = tempFile(source);
+            final boolean mapped = name.equals("scanmapped");
+            return new Op() {
+                long measure() throws Exception {
+                    Reader reader = mapped ? SourceReader.open(file) : new FileReader(file);
+                    try {
+                        Yylex lexer = new Yylex(reader, context());
+                        long n = 0;
+                        while (lexer.next_token().sym != sym.EOF)
+                            n++;
+                        return n;
+                    } finally {
+                        reader.close();
+                    }
+                }
+            };
+        }
+        if (name.equals("tokensmapped")) {
+            final String file = tempFile(source);
+            return new Op() {
+                long measure() throws Exception {
+                    return TokenStream.scan(SourceReader.open(file), context()).size();
+                }
+            };
+        }
+        if (name.equals("parse")) {
+            return new Op() {
+                long measure() throws Exception {
+                    return HIRCompiler.parse(new StringReader(source), context()).hashCode();
+                }
+            };
+        }
+        if (name.equals("compile")) {
+            return new Op() {
+                Program program;
+                CompileContext ctx;
+
+                void setup() throws Exception {
+                    ctx = context();
+                    program = HIRCompiler.parse(new StringReader(source), ctx);
+                }
+
+                long measure() {
+                    program.compile(ctx);
+                    return ctx.globalCnt;
+                }
+            };
+        }
+        if (name.equals("optimize")) {
+            return new Op() {
+                Program program;
+
+                void setup() throws Exception {
+                    CompileContext ctx = context();
+                    program = HIRCompiler.parse(new StringReader(source), ctx);
+                    program.compile(ctx);
+                }
+
+                long measure() {
+                    program.optimize(new HIROptimizer());
+                    program.allocateTemps();
+                    return program.hashCode();
+                }
+            };
+        }
+        if (name.equals("endtoend")) {
+            return new Op() {
+                long measure() throws Exception {
+                    CompileContext ctx = context();
+                    Program program = HIRCompiler.parse(new StringReader(source), ctx);
+                    CountingWriter out = new CountingWriter();
+                    PrintWriter writer = new PrintWriter(out);
+                    HIRCompiler.generate(program, writer, ctx);
+                    writer.flush();
+                    return out.count;
+                }
+            };
+        }
+        throw new IllegalArgumentException("unknown benchmark " + name);
+    }
+
+    // The source written to a file that is deleted on exit
+    private static String tempFile(String source) throws IOException {
+        File file = File.createTempFile("bench", ".C");
+        file.deleteOnExit();
+        Writer out = new FileWriter(file);
+        try {
+            out.write(source);
+        } finally {
+            out.close();
+        }
+        return file.getPath();
+    }
+
+    private static CompileContext context() {
+        return new CompileContext(new PrintStream(new ByteArrayOutputStream()));
+    }
+
+    // Counts what is written instead of keeping it
+    static class CountingWriter extends Writer {
+        long count;
+
+        public void write(char[] buf, int off, int len) {
+            count += len;
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    }
+
+    // **********************************************************************
+    // Inputs
+    // **********************************************************************
+    static String source(String shape, int size) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("int total;\n");
+        if (shape.equals("functions")) {
+            for (int i = 0; i < size; i++) {
+                sb.append("int f").append(i).append("(int a, int b) {\n");
+                sb.append("    int x;\n");
+                sb.append("    x = a * ").append(i % 7 + 1).append(" + b;\n");
+                sb.append("    if (x > ").append(i).append(") {\n");
+                sb.append("        x -= ").append(i).append(";\n");
+                sb.append("    }\n");
+                sb.append("    total += x;\n");
+                sb.append("    return x;\n");
+                sb.append("}\n");
+            }
+        } else if (shape.equals("nesting")) {
+            // a function 50 levels deep for every 10
+            for (int f = 0; f < Math.max(1, size / 10); f++) {
+                sb.append("int f").append(f).append("(int a) {\n    int i;\n    int x;\n    x = a;\n");
+                for (int d = 0; d < 50; d++) {
+                    if (d % 2 == 0)
+                        sb.append("if (x > ").append(d).append(") { x -= 1;\n");
+                    else
+                        sb.append("for (i = 0; i < 2; i += 1) { x += i;\n");
+                }
+                for (int d = 49; d >= 0; d--)
+                    sb.append(d % 2 == 0 ? "} else { x += 1; }\n" : "}\n");
+                sb.append("    return x;\n}\n");
+            }
+        } else if (shape.equals("exprs")) {
+            sb.append("int f(int a, int b, int c) {\n    int x;\n    x = 0;\n");
+            for (int i = 0; i < size; i++) {
+                sb.append("    x = ");
+                for (int k = 0; k < 50; k++) {
+                    if (k > 0)
+                        sb.append(" + ");
+                    sb.append("(a * ").append(k + 1).append(" - b / ").append(k % 5 + 1)
+                      .append(" + c % ").append(k % 3 + 2).append(")");
+                }
+                sb.append(";\n    if (x > a && x < b || x == c) { x = x - 1; }\n");
+            }
+            sb.append("    return x;\n}\n");
+        } else if (shape.equals("strings")) {
+            sb.append("void f() {\n");
+            for (int i = 0; i < size * 10; i++)
+                sb.append("    print(\"message number ").append(i % 2 == 0 ? i : i % 10).append("\\n\");\n");
+            sb.append("}\n");
+        } else if (shape.equals("generated")) {
+            StringWriter out = new StringWriter();
+            try {
+                new SimpleCGenerator(1, size * 1024L).generate(out);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+            return out.toString();
+        } else {
+            throw new IllegalArgumentException("unknown shape " + shape);
+        }
+        sb.append("void main() {\n    total = 0;\n    print(total);\n}\n");
+        return sb.toString();
+    }
+}
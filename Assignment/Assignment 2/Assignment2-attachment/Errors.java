@@ -1,27 +1,69 @@
+import java.io.*;
+import java.util.*;
+
 // This class is used to generate warning and error messages.
+// Every compilation has its own, see CompileContext.
 
 class Errors {
-    static void fatal(int lineNum, int charNum, String msg) {
-        System.out.println(lineNum + ":" + charNum + " **ERROR** " + msg);
+    private PrintStream out;
+
+    // errors and warnings kept for replay, when there is no out
+    private List<Object[]> kept;
+
+    Errors(PrintStream out) {
+        this.out = out;
+    }
+
+    // Keep the errors and warnings instead of printing them, for a part of
+    // a source that is scanned on its own (see TokenStream)
+    Errors() {
+        kept = new ArrayList<Object[]>();
+    }
+
+    void fatal(int lineNum, int charNum, String msg) {
+        if (kept != null)
+            kept.add(new Object[] {Boolean.TRUE, lineNum, charNum, msg});
+        else
+            out.println(lineNum + ":" + charNum + " **ERROR** " + msg);
         fatalError = true;
     }
 
-    static void warn(int lineNum, int charNum, String msg) {
-        System.out.println(lineNum + ":" + charNum + " **WARNING** " + msg);
+    void warn(int lineNum, int charNum, String msg) {
+        if (kept != null)
+            kept.add(new Object[] {Boolean.FALSE, lineNum, charNum, msg});
+        else
+            out.println(lineNum + ":" + charNum + " **WARNING** " + msg);
     }
-    
-    static boolean fatalError = false;
-    
-    static void semanticError(int lineNum, int charNum, String msg) {
-        System.out.println(lineNum + ":" + charNum + " **SEMANTIC ERROR** " + msg);
+
+    // Report what was kept to errors, lines moved down by lines
+    void replay(Errors errors, int lines) {
+        for (Object[] e : kept) {
+            if ((Boolean) e[0])
+                errors.fatal((Integer) e[1] + lines, (Integer) e[2], (String) e[3]);
+            else
+                errors.warn((Integer) e[1] + lines, (Integer) e[2], (String) e[3]);
+        }
+    }
+
+    boolean fatalError = false;
+
+    void syntaxError(int lineNum, int charNum, String msg) {
+        fatal(lineNum, charNum, msg);
+        syntaxErrors++;
+    }
+
+    int syntaxErrors = 0;
+
+    void semanticError(int lineNum, int charNum, String msg) {
+        out.println(lineNum + ":" + charNum + " **SEMANTIC ERROR** " + msg);
         semanticErrors++;
     }
 
-    static void semanticWarn(int lineNum, int charNum, String msg) {
-        System.out.println(lineNum + ":" + charNum + " **SEMANTIC WARNING** " + msg);
+    void semanticWarn(int lineNum, int charNum, String msg) {
+        out.println(lineNum + ":" + charNum + " **SEMANTIC WARNING** " + msg);
         semanticWarns++;
     }
-    
-    static int semanticErrors = 0;
-    static int semanticWarns = 0;
-}
\ No newline at end of file
+
+    int semanticErrors = 0;
+    int semanticWarns = 0;
+}
@@ -0,0 +1,287 @@
+import java.io.*;
+import java_cup.runtime.Symbol;
+
+// **********************************************************************
+// FastScanner: a hand-written scanner for SimpleC, giving exactly the
+// tokens, positions and diagnostics Yylex gives (see ScannerDiff).
+//
+// Instead of walking the JLex DFA tables a character at a time, it
+// dispatches on the first character of a token with a switch and scans
+// the rest of it in a tight loop over the source, which it reads whole.
+// Keywords are found by a perfect hash of their first and last characters
+// and length, so an identifier is compared with at most one keyword.
+// Lines and columns are counted as the characters go by.
+//
+// Where Yylex cannot go on (a character outside ASCII, which its tables do
+// not cover) this one reports an illegal character, or takes it into a
+// string literal or comment.
+// **********************************************************************
+class FastScanner implements java_cup.runtime.Scanner {
+    private CompileContext ctx;
+    private char[] buf;
+    private int end;                // the source is buf[0, end)
+    private int pos;                // the next character to scan
+    private int start;              // where the current token starts
+    private int line;               // from 0, as yyline
+    private int charNum = 1;
+
+    // When set, tokens are appended to it instead of being returned as Symbols
+    private TokenStream stream;
+
+    // Keywords by hash(), with their kinds
+    private static final char[][] KEYWORDS = new char[8][];
+    private static final int[] KEYWORD_KINDS = new int[8];
+
+    static {
+        keyword("int", sym.INT);
+        keyword("void", sym.VOID);
+        keyword("if", sym.IF);
+        keyword("else", sym.ELSE);
+        keyword("while", sym.WHILE);
+        keyword("for", sym.FOR);
+        keyword("return", sym.RETURN);
+    }
+
+    private static void keyword(String word, int kind) {
+        char[] c = word.toCharArray();
+        int h = hash(c, 0, c.length);
+        if (KEYWORDS[h] != null)
+            throw new Error("keyword hash collision: " + word + " and " + new String(KEYWORDS[h]));
+        KEYWORDS[h] = c;
+        KEYWORD_KINDS[h] = kind;
+    }
+
+    // Different for every keyword
+    private static int hash(char[] b, int off, int len) {
+        return (2 * b[off] + 8 * b[off + len - 1] + len) & 7;
+    }
+
+    public FastScanner(char[] buf, int length, CompileContext ctx) {
+        this.buf = buf;
+        this.end = length;
+        this.ctx = ctx;
+    }
+
+    public FastScanner(Reader source, CompileContext ctx) throws IOException {
+        this.ctx = ctx;
+        // a SourceReader gives at most a character per byte, so one more
+        // character of room ends the loop below without copying
+        if (source instanceof SourceReader)
+            buf = new char[((SourceReader) source).bytes().remaining() + 1];
+        else
+            buf = new char[1 << 16];
+        int r;
+        while ((r = source.read(buf, end, buf.length - end)) != -1) {
+            end += r;
+            if (end == buf.length)
+                buf = java.util.Arrays.copyOf(buf, buf.length * 2);
+        }
+    }
+
+    // Append the tokens to stream from now on
+    void stream(TokenStream stream) {
+        this.stream = stream;
+    }
+
+    public Symbol next_token() {
+        char[] b = buf;
+        while (pos < end) {
+            start = pos;
+            char c = b[pos++];
+            switch (c) {
+            case ' ':
+            case '\t':
+                while (pos < end && (b[pos] == ' ' || b[pos] == '\t'))
+                    pos++;
+                charNum += pos - start;
+                continue;
+            case '\n':
+                line++;
+                charNum = 1;
+                continue;
+            case '\r':
+                charNum = 1;
+                continue;
+            case '#':
+                comment();
+                continue;
+            case '/':
+                if (pos < end && b[pos] == '/') {
+                    comment();
+                    continue;
+                }
+                return token(next('=') ? sym.DIVEQL : sym.DIVIDE, 0);
+            case '{':
+                return token(sym.LCURLY, 0);
+            case '}':
+                return token(sym.RCURLY, 0);
+            case '(':
+                return token(sym.LPAREN, 0);
+            case ')':
+                return token(sym.RPAREN, 0);
+            case '[':
+                return token(sym.LSQBRACKET, 0);
+            case ']':
+                return token(sym.RSQBRACKET, 0);
+            case ',':
+                return token(sym.COMMA, 0);
+            case ';':
+                return token(sym.SEMICOLON, 0);
+            case '%':
+                return token(sym.PERCENT, 0);
+            case '=':
+                return token(next('=') ? sym.EQUALS : sym.ASSIGN, 0);
+            case '!':
+                return token(next('=') ? sym.NOTEQUALS : sym.NOT, 0);
+            case '<':
+                return token(next('=') ? sym.LESSEQ : sym.LESS, 0);
+            case '>':
+                return token(next('=') ? sym.GREATEREQ : sym.GREATER, 0);
+            case '+':
+                return token(next('=') ? sym.PLUSEQL : sym.PLUS, 0);
+            case '-':
+                return token(next('=') ? sym.MINUSEQL : sym.MINUS, 0);
+            case '*':
+                return token(next('=') ? sym.TIMESEQL : sym.TIMES, 0);
+            case '&':
+                return token(next('&') ? sym.AND : sym.ADDROF, 0);
+            case '|':
+                if (next('|'))
+                    return token(sym.OR, 0);
+                break;
+            case '"':
+                Symbol s = string();
+                if (s != null)
+                    return s;
+                continue;
+            default:
+                if (c >= '0' && c <= '9')
+                    return number();
+                if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_')
+                    return identifier();
+                break;
+            }
+            illegal();
+        }
+        return new Symbol(sym.EOF);
+    }
+
+    private boolean next(char c) {
+        if (pos < end && buf[pos] == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    // The token from start to pos, with its value: the interned id of an ID
+    // or STRINGLITERAL, the value of an INTLITERAL. As in Yylex.token.
+    private Symbol token(int kind, int value) {
+        int len = pos - start, col = charNum;
+        charNum += len;
+        if (stream != null) {
+            stream.add(kind, line + 1, col, start, len, value);
+            return TokenStream.TOKEN;
+        }
+        if (kind == sym.ID || kind == sym.STRINGLITERAL)
+            return new Symbol(kind, new StringTokenVal(line + 1, col, ctx.interner.name(value), value));
+        if (kind == sym.INTLITERAL)
+            return new Symbol(kind, new IntLitTokenVal(line + 1, col, value));
+        return new Symbol(kind, new TokenVal(line + 1, col));
+    }
+
+    private void illegal() {
+        pos = start + 1;
+        ctx.errors.fatal(line + 1, charNum, "ignoring illegal character: " + buf[start]);
+        charNum++;
+    }
+
+    // To the end of the line, which is left for the next token
+    private void comment() {
+        while (pos < end && buf[pos] != '\n')
+            pos++;
+        charNum += pos - start;
+    }
+
+    private Symbol identifier() {
+        char[] b = buf;
+        while (pos < end) {
+            char c = b[pos];
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_'))
+                break;
+            pos++;
+        }
+        int len = pos - start;
+        if (len >= 2 && len <= 6) {
+            int h = hash(b, start, len);
+            if (isKeyword(KEYWORDS[h], b, start, len))
+                return token(KEYWORD_KINDS[h], 0);
+        }
+        return token(sym.ID, ctx.interner.intern(b, start, len));
+    }
+
+    private static boolean isKeyword(char[] word, char[] b, int off, int len) {
+        if (word == null || word.length != len)
+            return false;
+        for (int i = 0; i < len; i++)
+            if (word[i] != b[off + i])
+                return false;
+        return true;
+    }
+
+    private Symbol number() {
+        char[] b = buf;
+        while (pos < end && b[pos] >= '0' && b[pos] <= '9')
+            pos++;
+        long val = 0;
+        for (int i = start; i < pos; i++) {
+            val = val * 10 + (b[i] - '0');
+            if (val > Integer.MAX_VALUE) {
+                ctx.errors.warn(line + 1, charNum, "integer literal too large; using max value");
+                val = Integer.MAX_VALUE;
+                break;
+            }
+        }
+        return token(sym.INTLITERAL, (int) val);
+    }
+
+    // A string literal from the opening quote at start, or null when it is
+    // ignored. One that does not close before the end of the line takes the
+    // end of the line with it; one that runs into the end of the source
+    // without either is not a literal at all, and its quote is an illegal
+    // character.
+    private Symbol string() {
+        char[] b = buf;
+        int i = pos;
+        while (true) {
+            if (i == end || b[i] == '\\' && i + 1 == end) {
+                illegal();
+                return null;
+            }
+            char c = b[i];
+            if (c == '"') {
+                pos = i + 1;
+                int bad = StringTokenVal.decode(b, start, pos - start, null);
+                if (bad < 0)
+                    return token(sym.STRINGLITERAL, ctx.interner.intern(b, start, pos - start));
+                ctx.errors.fatal(line + 1, charNum + bad, "ignoring string literal with bad escaped character");
+                charNum += pos - start;
+                return null;
+            }
+            if (c == '\n' || c == '\\' && b[i + 1] == '\n') {
+                if (c == '\\')
+                    i++;
+                pos = i + 1;
+                int bad = StringTokenVal.decode(b, start, i - start, null);
+                if (bad < 0)
+                    ctx.errors.fatal(line + 1, charNum, "ignoring unterminated string literal");
+                else
+                    ctx.errors.fatal(line + 1, charNum + bad, "ignoring unterminated string literal with bad escaped character");
+                line++;
+                charNum = 1;
+                return null;
+            }
+            i += c == '\\' ? 2 : 1;
+        }
+    }
+}
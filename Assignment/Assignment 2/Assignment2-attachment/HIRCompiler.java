@@ -1,61 +1,240 @@
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 import java_cup.runtime.*;
 
 public class HIRCompiler {
     public static void main(String[] args) throws IOException {
-        // SimpleC file
-        String fileSimpleC = "";
-        if (args.length >= 1) {
-            fileSimpleC = args[0];
-        } else {
-            System.err.println("usage: HIRCompiler <SimpleC_file> <HIR_File>");
+        // Options come before the files: -O0 turns the optimizer and the
+        // temporary allocation off, -parallel compiles functions in parallel.
+        // -server <port> runs a compile server (port 0 picks a free one) and
+        // -connect <port> has the files compiled by it. -metrics prints the
+        // time and memory of every phase, -metrics-json <file> appends them
+        // to a file as a JSON line. -fastscan scans with FastScanner,
+        // -parallelscan scans long sources in parts on several threads.
+        // -cache <dir> keeps the HIR of every function in dir and compiles
+        // only the functions that changed since (not with -connect).
+        // -batch <dir|glob|manifest> compiles many files at once, on -jobs
+        // <n> threads (see BatchCompiler).
+        int first = 0;
+        int serverPort = -1, connectPort = -1, jobs = Runtime.getRuntime().availableProcessors();
+        boolean metrics = false;
+        String metricsJson = null, cacheDir = null, batch = null;
+        List<String> options = new ArrayList<String>();    // passed on by -connect
+        while (first < args.length && args[first].startsWith("-")) {
+            String option = args[first++];
+            if (option.equals("-server") && first < args.length) {
+                serverPort = Integer.parseInt(args[first++]);
+            } else if (option.equals("-connect") && first < args.length) {
+                connectPort = Integer.parseInt(args[first++]);
+            } else if (option.equals("-metrics")) {
+                metrics = true;
+            } else if (option.equals("-metrics-json") && first < args.length) {
+                metricsJson = args[first++];
+            } else if (option.equals("-cache") && first < args.length) {
+                cacheDir = args[first++];
+            } else if (option.equals("-batch") && first < args.length) {
+                batch = args[first++];
+            } else if (option.equals("-jobs") && first < args.length) {
+                jobs = Math.max(1, Integer.parseInt(args[first++]));
+            } else if (option.equals("-O0") || option.equals("-O") || option.equals("-parallel")
+                    || option.equals("-fastscan") || option.equals("-parallelscan")) {
+                options.add(option);
+            } else {
+                System.err.println("Unknown option " + option);
+                System.exit(-1);
+            }
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
+
+        if (serverPort >= 0) {
+            CompileServer server = new CompileServer(serverPort);
+            System.out.println("Listening on localhost:" + server.getPort());
+            server.serve();
+            return;
+        }
+
+        if (batch != null && args.length == 0) {
+            BatchCompiler compiler = new BatchCompiler(options, cacheDir, metrics, metricsJson);
+            List<String[]> files = null;
+            try {
+                files = BatchCompiler.files(batch);
+            } catch (IOException ex) {
+                System.err.println("Cannot read " + batch + ": " + ex.getMessage());
+                System.exit(-1);
+            }
+            if (!compiler.run(files, jobs))
+                System.exit(-1);
+            return;
+        }
+
+        // SimpleC and HIR files, in pairs
+        if (args.length < 2 || args.length % 2 != 0 || batch != null) {
+            System.err.println("usage: HIRCompiler [-O|-O0] [-parallel] [-fastscan] [-parallelscan] [-metrics] [-metrics-json <file>]"
+                    + " [-cache <dir>] [-server <port> | -connect <port>] <SimpleC_file> <HIR_File> [<SimpleC_file> <HIR_File> ...]");
+            System.err.println("       HIRCompiler [options] -batch <dir|glob|manifest> [-jobs <n>]");
             System.exit(-1);
         }
 
-        // HIR file
-        String fileHIR = "";
-        if (args.length >= 2) {
-            fileHIR = args[1];
-        } else {
-            System.err.println("usage: HIRCompiler <SimpleC_file> <HIR_File>");
+        // A file with errors does not stop the others; the exit status says
+        // whether any of them failed
+        int failed = 0;
+        for (int i = 0; i < args.length; i += 2) {
+            String fileSimpleC = args[i], fileHIR = args[i + 1];
+            if (args.length > 2)
+                System.out.println(fileSimpleC + ":");
+            boolean ok;
+            if (connectPort >= 0) {
+                ok = request(connectPort, options, fileSimpleC, fileHIR);
+            } else {
+                CompileContext ctx = context(options, System.out);
+                if (cacheDir != null)
+                    ctx.cache = new CompileCache(new File(cacheDir));
+                ok = compile(fileSimpleC, fileHIR, ctx, System.out, System.err, metrics, metricsJson);
+            }
+            if (!ok)
+                failed++;
+        }
+        if (failed > 0)
             System.exit(-1);
+    }
+
+    // A context for one file, with the options of the command line
+    static CompileContext context(List<String> options, PrintStream diagnostics) {
+        CompileContext ctx = new CompileContext(diagnostics);
+        for (String option : options) {
+            if (option.equals("-O0"))
+                ctx.optimize = false;
+            if (option.equals("-parallel"))
+                ctx.pool = ForkJoinPool.commonPool();
+            if (option.equals("-fastscan"))
+                ctx.fastScanner = true;
+            if (option.equals("-parallelscan"))
+                ctx.parallelScan = true;
         }
+        return ctx;
+    }
 
-        // Open input file
-        FileReader reader = null;
-        try {
-            reader = new FileReader(fileSimpleC);
-        } catch (FileNotFoundException ex) {
+    // Have one file compiled by the server at port
+    private static boolean request(int port, List<String> options, String fileSimpleC, String fileHIR)
+            throws IOException {
+        if (!new File(fileSimpleC).isFile()) {
             System.err.println("File " + fileSimpleC + " not found!");
-            System.exit(-1);
+            return false;
+        }
+        if (!CompileServer.request(port, options, new File(fileSimpleC), new File(fileHIR)))
+            return false;
+        System.out.println("Finished!");
+        return true;
+    }
+
+    // Compile one file; errors are reported, the diagnostics to the context
+    // and the rest to out and err, and the result is whether the HIR was
+    // written
+    static boolean compile(String fileSimpleC, String fileHIR, CompileContext ctx, PrintStream out,
+            PrintStream err, boolean metrics, String metricsJson) throws IOException {
+        // Open input file, mapped into memory
+        SourceReader reader;
+        try {
+            reader = SourceReader.open(fileSimpleC);
+        } catch (IOException ex) {
+            err.println("File " + fileSimpleC + " not found!");
+            return false;
         }
 
-        parser P = new parser(new Yylex(reader));
+        if (metrics || metricsJson != null)
+            ctx.metrics = new CompileMetrics("HIRCompiler", fileSimpleC);
 
-        Program program = null;
+        // The whole source is read by the parse, whatever becomes of it
+        Program program;
         try {
-            program = (Program) P.parse().value;
+            program = parse(reader, ctx);
         } catch (Exception ex) {
-            System.err.println("Exception occured during parse: " + ex);
-            System.exit(-1);
+            err.println("Exception occured during parse: " + ex);
+            return false;
+        } finally {
+            reader.close();
         }
 
-        if (Errors.fatalError) {
-            System.err.println("Confused by earlier errors: aborting");
-            System.exit(0);
+        // Syntax errors have already been reported
+        if (program == null)
+            return false;
+
+        if (ctx.errors.fatalError) {
+            err.println("Confused by earlier errors: aborting");
+            return false;
         }
 
         // Open output file
         PrintWriter writer = new PrintWriter(fileHIR);
 
-        // Compile
-        program.compile(writer);
+        // Compile, then close and save the file
+        try {
+            generate(program, writer, ctx);
+        } finally {
+            writer.close();
+        }
 
-        // Close and save files
-        reader.close();
-        writer.flush();
-        writer.close();
+        if (metrics)
+            ctx.metrics.print(err);
+        if (metricsJson != null)
+            ctx.metrics.appendJson(metricsJson);
 
-        System.out.println("Finished!");
+        out.println("Finished!");
+        return true;
+    }
+
+    // Parse one SimpleC source; errors are reported to the context. The
+    // parser recovers from syntax errors to report all of them, but the
+    // result is null when there were any.
+    static Program parse(Reader source, CompileContext ctx) throws Exception {
+        CompileMetrics metrics = ctx.metrics;
+        java_cup.runtime.Scanner scanner;
+        if (metrics != null || ctx.parallelScan || ctx.cache != null) {
+            TokenStream tokens = metrics != null ? metrics.scan(source, ctx) : TokenStream.scan(source, ctx);
+            // the cache needs the tokens of every declaration
+            if (ctx.cache != null)
+                ctx.cache.fingerprint(tokens, ctx);
+            scanner = tokens.scanner();
+            if (metrics != null)
+                metrics.start("parse");
+        } else {
+            scanner = ctx.fastScanner ? new FastScanner(source, ctx) : new Yylex(source, ctx);
+        }
+        parser P = new parser(scanner, ctx);
+        Symbol root = P.parse();
+        if (metrics != null)
+            metrics.stop();
+        if (ctx.errors.syntaxErrors > 0)
+            return null;
+        if (metrics != null)
+            metrics.countNodes((Program) root.value);
+        return (Program) root.value;
+    }
+
+    // Compile a parsed program and write its HIR to out
+    static void generate(Program program, PrintWriter out, CompileContext ctx) {
+        CompileMetrics metrics = ctx.metrics;
+        if (metrics != null)
+            metrics.start("codegen");
+        program.compile(ctx);
+
+        // Optimize the code of each function before it is written out,
+        // then let temporaries that are never live together share slots
+        if (ctx.optimize) {
+            if (metrics != null)
+                metrics.next("optimize");
+            program.optimize(new HIROptimizer());
+            program.allocateTemps();
+        }
+
+        if (metrics != null)
+            metrics.next("output");
+        program.output(out);
+        out.flush();
+        if (metrics != null) {
+            metrics.stop();
+            metrics.countCode(program);
+        }
     }
 }
\ No newline at end of file
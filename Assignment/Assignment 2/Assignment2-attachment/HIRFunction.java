@@ -0,0 +1,212 @@
+import java.util.*;
+
+// **********************************************************************
+// HIRFunction: the body of one function as the passes work on it, the
+// lines of its code (see HIRInstr) and the control flow graph of its
+// basic blocks.
+//
+// The code generator in Ast builds the instructions of a body as it
+// compiles it; HIROptimizer, TempAllocator and Namespace.relocate then all
+// rewrite the same instructions. CodeBuffer holds a function as it is and
+// prints it only when the program is written out.
+//
+// A basic block is a run of lines [start, end) that is only entered at
+// its first line: a new block starts at every label some jump goes to and
+// after every jump, ret and retf. Labels nobody jumps to stay inside their
+// block. The graph is built the first time it is asked for, and again
+// after the code is replaced with setCode(); a pass that changes where
+// jumps go in place has to call setCode() too.
+//
+// dominators() works out the dominator tree of the blocks that can be
+// reached from the first one.
+// **********************************************************************
+class HIRFunction {
+    private List<HIRInstr> code;
+    private List<BasicBlock> blocks;
+    private int[] blockOf;
+    private List<BasicBlock> reachable;     // in reverse postorder
+
+    static class BasicBlock {
+        int index;
+        int start, end;
+        List<BasicBlock> succ = new ArrayList<BasicBlock>(2);
+        List<BasicBlock> pred = new ArrayList<BasicBlock>(2);
+
+        // set by dominators(): the place in reverse postorder (-1 when the
+        // block cannot be reached), the immediate dominator (none for the
+        // first block) and the blocks it immediately dominates
+        int order = -1;
+        BasicBlock idom;
+        List<BasicBlock> dominated = new ArrayList<BasicBlock>();
+    }
+
+    HIRFunction(List<HIRInstr> code) {
+        this.code = code;
+    }
+
+    List<HIRInstr> code() {
+        return code;
+    }
+
+    void setCode(List<HIRInstr> code) {
+        this.code = code;
+        blocks = null;
+        blockOf = null;
+        reachable = null;
+    }
+
+    // **********************************************************************
+    // Control flow graph
+    // **********************************************************************
+    List<BasicBlock> blocks() {
+        if (blocks == null)
+            build();
+        return blocks;
+    }
+
+    // The block that line i is in
+    BasicBlock blockOf(int i) {
+        if (blocks == null)
+            build();
+        return blocks.get(blockOf[i]);
+    }
+
+    // The labels that some jump in code goes to
+    static Set<HIROperand> targets(List<HIRInstr> code) {
+        Set<HIROperand> targets = new HashSet<HIROperand>();
+        for (HIRInstr in : code)
+            if (in.isJump())
+                targets.add(in.target());
+        return targets;
+    }
+
+    private void build() {
+        int n = code.size();
+        Set<HIROperand> targets = targets(code);
+        blocks = new ArrayList<BasicBlock>();
+        blockOf = new int[n];
+        Map<HIROperand, BasicBlock> labels = new HashMap<HIROperand, BasicBlock>();
+        BasicBlock b = null;
+        boolean ended = true;
+        for (int i = 0; i < n; i++) {
+            HIRInstr in = code.get(i);
+            if (ended || in.label != null && targets.contains(in.label)) {
+                if (b != null)
+                    b.end = i;
+                b = new BasicBlock();
+                b.index = blocks.size();
+                b.start = i;
+                blocks.add(b);
+            }
+            if (in.label != null)
+                labels.put(in.label, b);
+            blockOf[i] = b.index;
+            ended = in.isJump() || in.endsFlow();
+        }
+        if (b != null)
+            b.end = n;
+
+        // A jump to a label that is not in the body goes nowhere; it fails
+        // at run time anyway
+        for (BasicBlock block : blocks) {
+            HIRInstr last = code.get(block.end - 1);
+            if (!last.endsFlow() && block.index + 1 < blocks.size())
+                link(block, blocks.get(block.index + 1));
+            if (last.isJump() && labels.containsKey(last.target()))
+                link(block, labels.get(last.target()));
+        }
+    }
+
+    private static void link(BasicBlock from, BasicBlock to) {
+        if (from.succ.contains(to))
+            return;
+        from.succ.add(to);
+        to.pred.add(from);
+    }
+
+    // **********************************************************************
+    // Dominators
+    //
+    // The blocks that can be reached are put in reverse postorder, and the
+    // immediate dominators are found by intersecting the dominators of the
+    // predecessors until nothing changes (Cooper, Harvey and Kennedy, "A
+    // Simple, Fast Dominance Algorithm"). Both walks keep their own stack, as
+    // a long function has chains of thousands of blocks.
+    // **********************************************************************
+
+    // The blocks that can be reached from the first one, in reverse
+    // postorder, with their dominators set
+    List<BasicBlock> dominators() {
+        if (reachable != null)
+            return reachable;
+        List<BasicBlock> blocks = blocks();
+        List<BasicBlock> post = new ArrayList<BasicBlock>();
+        if (!blocks.isEmpty()) {
+            boolean[] seen = new boolean[blocks.size()];
+            Deque<BasicBlock> stack = new ArrayDeque<BasicBlock>();
+            Deque<Integer> next = new ArrayDeque<Integer>();
+            stack.push(blocks.get(0));
+            next.push(0);
+            seen[0] = true;
+            while (!stack.isEmpty()) {
+                BasicBlock b = stack.peek();
+                int i = next.pop();
+                if (i < b.succ.size()) {
+                    next.push(i + 1);
+                    BasicBlock s = b.succ.get(i);
+                    if (!seen[s.index]) {
+                        seen[s.index] = true;
+                        stack.push(s);
+                        next.push(0);
+                    }
+                } else {
+                    stack.pop();
+                    post.add(b);
+                }
+            }
+        }
+        Collections.reverse(post);
+        for (BasicBlock b : blocks) {
+            b.order = -1;
+            b.idom = null;
+            b.dominated.clear();
+        }
+        for (int i = 0; i < post.size(); i++)
+            post.get(i).order = i;
+
+        if (!post.isEmpty()) {
+            BasicBlock entry = post.get(0);
+            entry.idom = entry;
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int i = 1; i < post.size(); i++) {
+                    BasicBlock b = post.get(i);
+                    BasicBlock idom = null;
+                    for (BasicBlock p : b.pred)
+                        if (p.idom != null)
+                            idom = idom == null ? p : intersect(p, idom);
+                    if (idom != b.idom) {
+                        b.idom = idom;
+                        changed = true;
+                    }
+                }
+            }
+            entry.idom = null;
+            for (int i = 1; i < post.size(); i++)
+                post.get(i).idom.dominated.add(post.get(i));
+        }
+        reachable = post;
+        return reachable;
+    }
+
+    private static BasicBlock intersect(BasicBlock a, BasicBlock b) {
+        while (a != b) {
+            while (a.order > b.order)
+                a = a.idom;
+            while (b.order > a.order)
+                b = b.idom;
+        }
+        return a;
+    }
+}
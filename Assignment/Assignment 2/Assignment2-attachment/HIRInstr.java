@@ -0,0 +1,75 @@
+// **********************************************************************
+// HIRInstr: one line of HIR as seen by the passes over a function body,
+// a label or an instruction (op + operands). The code generator in Ast
+// builds them as it compiles, and toString() writes them out.
+// **********************************************************************
+class HIRInstr {
+    HIROperand label;
+    HIROp op;
+    HIROperand[] opr;
+
+    // A null operand is what an expression that compiles to nothing leaves
+    // (ArrayExp and the pointer expressions); it is written as null, which
+    // the interpreter rejects
+    static HIRInstr of(HIROp op, HIROperand... opr) {
+        HIRInstr in = new HIRInstr();
+        in.op = op;
+        in.opr = opr;
+        for (int i = 0; i < opr.length; i++)
+            if (opr[i] == null)
+                opr[i] = HIROperand.NULL;
+        return in;
+    }
+
+    static HIRInstr label(HIROperand label) {
+        HIRInstr in = new HIRInstr();
+        in.label = label;
+        return in;
+    }
+
+    boolean isJump() {
+        return op != null && op.isJump();
+    }
+
+    // the label a jump goes to
+    HIROperand target() {
+        return opr[opr.length - 1];
+    }
+
+    boolean defines() {
+        return op != null && op.defines();
+    }
+
+    // operand j is a value that is read, which a literal could stand for;
+    // the others are written, or name an array, a record, a count or a
+    // label
+    boolean readsValue(int j) {
+        if (op == null)
+            return false;
+        if (op.isBinary() || op.isUnary())
+            return j > 0;
+        if (op.isJump())
+            return j < opr.length - 1;
+        switch (op) {
+        case ARG: case WRITE: return j == 0;
+        case RETF: case ARRA: case RECA: return j == 1;
+        case ARRS: return j == 1 || j == 2;
+        case RECS: return j == 2;
+        default: return false;
+        }
+    }
+
+    // execution never continues with the next line
+    boolean endsFlow() {
+        return op != null && op.endsFlow();
+    }
+
+    public String toString() {
+        if (label != null)
+            return label + ":";
+        StringBuilder sb = new StringBuilder().append(op);
+        for (int i = 0; i < opr.length; i++)
+            sb.append(i == 0 ? " " : ", ").append(opr[i]);
+        return sb.toString();
+    }
+}
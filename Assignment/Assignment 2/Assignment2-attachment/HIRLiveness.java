@@ -0,0 +1,97 @@
+import java.util.*;
+
+// **********************************************************************
+// HIRLiveness: which & temporaries are live before and after every line
+// of a function body.
+//
+// Temporaries are numbered densely in order of first appearance; liveIn[i]
+// and liveOut[i] are sets of those numbers. The dataflow is solved over
+// the basic blocks of the function (see HIRFunction), and only then
+// carried through the lines of each block.
+// **********************************************************************
+class HIRLiveness {
+    Map<HIROperand, Integer> temps = new LinkedHashMap<HIROperand, Integer>();
+    BitSet[] use, def;
+    BitSet[] liveIn, liveOut;
+
+    HIRLiveness(HIRFunction fn) {
+        List<HIRInstr> code = fn.code();
+        int n = code.size();
+        for (HIRInstr in : code)
+            if (in.op != null)
+                for (HIROperand opr : in.opr)
+                    if (opr.is(HIROperand.Kind.TEMP) && !temps.containsKey(opr))
+                        temps.put(opr, temps.size());
+
+        use = new BitSet[n];
+        def = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            HIRInstr in = code.get(i);
+            use[i] = new BitSet();
+            def[i] = new BitSet();
+            if (in.op == null)
+                continue;
+            for (int j = 0; j < in.opr.length; j++) {
+                Integer t = temps.get(in.opr[j]);
+                if (t == null)
+                    continue;
+                if (j == 0 && in.defines())
+                    def[i].set(t);
+                else
+                    use[i].set(t);
+            }
+        }
+
+        // What each block reads before writing it, and writes
+        List<HIRFunction.BasicBlock> blocks = fn.blocks();
+        int nb = blocks.size();
+        BitSet[] blockUse = new BitSet[nb], blockDef = new BitSet[nb];
+        BitSet[] blockIn = new BitSet[nb], blockOut = new BitSet[nb];
+        for (HIRFunction.BasicBlock b : blocks) {
+            BitSet u = new BitSet(), d = new BitSet();
+            for (int i = b.end - 1; i >= b.start; i--) {
+                u.andNot(def[i]);
+                u.or(use[i]);
+                d.or(def[i]);
+            }
+            blockUse[b.index] = u;
+            blockDef[b.index] = d;
+            blockIn[b.index] = (BitSet) u.clone();
+            blockOut[b.index] = new BitSet();
+        }
+
+        // Backward dataflow over the blocks, iterated to a fixed point
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int k = nb - 1; k >= 0; k--) {
+                HIRFunction.BasicBlock b = blocks.get(k);
+                BitSet out = new BitSet();
+                for (HIRFunction.BasicBlock s : b.succ)
+                    out.or(blockIn[s.index]);
+                if (out.equals(blockOut[k]))
+                    continue;
+                BitSet in = (BitSet) out.clone();
+                in.andNot(blockDef[k]);
+                in.or(blockUse[k]);
+                blockOut[k] = out;
+                blockIn[k] = in;
+                changed = true;
+            }
+        }
+
+        // Then through the lines of every block
+        liveIn = new BitSet[n];
+        liveOut = new BitSet[n];
+        for (HIRFunction.BasicBlock b : blocks) {
+            BitSet live = blockOut[b.index];
+            for (int i = b.end - 1; i >= b.start; i--) {
+                liveOut[i] = live;
+                live = (BitSet) live.clone();
+                live.andNot(def[i]);
+                live.or(use[i]);
+                liveIn[i] = live;
+            }
+        }
+    }
+}
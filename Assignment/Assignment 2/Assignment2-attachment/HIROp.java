@@ -0,0 +1,57 @@
+// **********************************************************************
+// HIROp: the opcodes of HIR instructions, as HIRInstr holds them.
+//
+// Each opcode knows its text and what the passes need to know about it:
+// whether it computes its first operand from the others (BINARY, UNARY),
+// whether it writes its first operand at all, whether it jumps to the
+// label in its last operand, and whether execution goes on with the next
+// line after it.
+// **********************************************************************
+enum HIROp {
+    ADD(Kind.BINARY), SUB(Kind.BINARY), MULT(Kind.BINARY), DIV(Kind.BINARY), MOD(Kind.BINARY),
+    OR(Kind.BINARY), AND(Kind.BINARY),
+    GT(Kind.BINARY), GTE(Kind.BINARY), LT(Kind.BINARY), LTE(Kind.BINARY), EQ(Kind.BINARY), NEQ(Kind.BINARY),
+    COMP(Kind.UNARY), NOT(Kind.UNARY), MOVE(Kind.UNARY),
+    JT(Kind.JUMP), JF(Kind.JUMP), JEQ(Kind.JUMP), JNEQ(Kind.JUMP), JLT(Kind.JUMP), JLTE(Kind.JUMP),
+    JUMP(Kind.JUMP),
+    ARRG(Kind.DEFINES), RECG(Kind.DEFINES), ARRA(Kind.DEFINES), RECA(Kind.DEFINES),
+    CALLF(Kind.DEFINES), READ(Kind.DEFINES),
+    ARRS(Kind.OTHER), RECS(Kind.OTHER), ARG(Kind.OTHER), CALL(Kind.OTHER), WRITE(Kind.OTHER),
+    RET(Kind.OTHER), RETF(Kind.OTHER);
+
+    private enum Kind { BINARY, UNARY, JUMP, DEFINES, OTHER }
+
+    private final Kind kind;
+    private final String text;
+
+    HIROp(Kind kind) {
+        this.kind = kind;
+        this.text = name().toLowerCase();
+    }
+
+    boolean isBinary() {
+        return kind == Kind.BINARY;
+    }
+
+    boolean isUnary() {
+        return kind == Kind.UNARY;
+    }
+
+    boolean isJump() {
+        return kind == Kind.JUMP;
+    }
+
+    // the first operand is the one it writes
+    boolean defines() {
+        return kind == Kind.BINARY || kind == Kind.UNARY || kind == Kind.DEFINES;
+    }
+
+    // execution never continues with the next line
+    boolean endsFlow() {
+        return this == JUMP || this == RET || this == RETF;
+    }
+
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,94 @@
+// **********************************************************************
+// HIROperand: one operand of an HIR instruction, or a label.
+//
+//   &n   TEMP      temporary            @n   LOCAL     local variable
+//   %n   PARAM     parameter            $n   GLOBAL    global variable
+//   ?n   STRING    string literal       ~n   LABEL     label
+//   n    INT       integer literal           NAME      anything else: a
+//                                                      function, null
+//
+// Operands are immutable and compared by value. The ones with small
+// numbers are made once and shared, so compiling a function body and
+// rewriting its operands allocates next to nothing for them.
+// **********************************************************************
+final class HIROperand {
+    enum Kind {
+        TEMP('&'), LOCAL('@'), PARAM('%'), GLOBAL('$'), STRING('?'), LABEL('~'), INT((char) 0), NAME((char) 0);
+
+        final char prefix;
+
+        Kind(char prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    final Kind kind;
+    final int n;            // the number, for all kinds but NAME
+    final String name;      // the text, for NAME
+
+    private HIROperand(Kind kind, int n, String name) {
+        this.kind = kind;
+        this.n = n;
+        this.name = name;
+    }
+
+    private static final int SHARED = 256;
+    private static final HIROperand[][] shared = new HIROperand[Kind.values().length][SHARED];
+    static {
+        for (Kind k : Kind.values())
+            if (k != Kind.NAME)
+                for (int i = 0; i < SHARED; i++)
+                    shared[k.ordinal()][i] = new HIROperand(k, i, null);
+    }
+
+    static HIROperand of(Kind kind, int n) {
+        if (n >= 0 && n < SHARED)
+            return shared[kind.ordinal()][n];
+        return new HIROperand(kind, n, null);
+    }
+
+    static HIROperand temp(int n) {
+        return of(Kind.TEMP, n);
+    }
+
+    static HIROperand label(int n) {
+        return of(Kind.LABEL, n);
+    }
+
+    static HIROperand intLit(int n) {
+        return of(Kind.INT, n);
+    }
+
+    static HIROperand name(String name) {
+        return new HIROperand(Kind.NAME, -1, name);
+    }
+
+    // see HIRInstr.of
+    static final HIROperand NULL = name("null");
+
+    boolean is(Kind k) {
+        return kind == k;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof HIROperand))
+            return false;
+        HIROperand x = (HIROperand) o;
+        return kind == x.kind && n == x.n && (name == null ? x.name == null : name.equals(x.name));
+    }
+
+    @Override
+    public int hashCode() {
+        return kind == Kind.NAME ? name.hashCode() : kind.ordinal() * 31 + n;
+    }
+
+    @Override
+    public String toString() {
+        if (kind == Kind.NAME)
+            return name;
+        if (kind == Kind.INT)
+            return String.valueOf(n);
+        return kind.prefix + String.valueOf(n);
+    }
+}
@@ -0,0 +1,410 @@
+import java.util.*;
+
+// **********************************************************************
+// HIROptimizer: rewrites the HIR of one function body.
+//
+// HIRCompiler runs it on every function between compilation and output.
+// Constants are folded and propagated through each basic block, jumps on
+// constant conditions become unconditional jumps (or disappear), and the
+// temporaries left unused by that are removed. Then the values computed
+// twice are only computed once and copies are propagated, across the
+// whole body (see HIRValueNumbering), and a temporary only computed to be
+// moved somewhere is computed there instead. Then the jumps are
+// straightened out: a comparison only used by the jump after it becomes a
+// comparing jump, jumps to jumps go straight to where those go, and a
+// conditional jump over a jump is turned around. Last, the code that can
+// never run, the labels nobody jumps to and the jumps to the very next
+// line are removed.
+// **********************************************************************
+class HIROptimizer {
+    public void optimize(HIRFunction fn) {
+        fn.setCode(foldConstants(fn.code()));
+        removeDeadTemps(fn);
+        new HIRValueNumbering(fn).run();
+        removeDeadTemps(fn);
+        coalesceMoves(fn);
+        fuseCompares(fn);
+        threadJumps(fn);
+        fn.setCode(invertBranches(fn.code()));
+        fn.setCode(removeDeadCode(fn.code()));
+    }
+
+    // **********************************************************************
+    // Constant folding and propagation
+    // **********************************************************************
+    private List<HIRInstr> foldConstants(List<HIRInstr> code) {
+        // Labels nobody jumps to are only reached by falling through, so they
+        // do not end a basic block
+        Set<HIROperand> targets = HIRFunction.targets(code);
+
+        List<HIRInstr> res = new ArrayList<HIRInstr>(code.size());
+        Map<HIROperand, Integer> known = new HashMap<HIROperand, Integer>();
+        for (HIRInstr in : code) {
+            if (in.label != null && targets.contains(in.label))
+                known.clear();
+            if (in.op == null) {
+                res.add(in);
+                continue;
+            }
+
+            HIROp op = in.op;
+            if (op.isBinary() || op.isUnary()) {
+                Integer a = value(known, in.opr[1]);
+                Integer b = op.isUnary() ? a : value(known, in.opr[2]);
+                Integer r = a == null || b == null ? null : eval(op, a, b);
+                if (r != null && r >= 0) {
+                    in.op = HIROp.MOVE;
+                    in.opr = new HIROperand[] {in.opr[0], HIROperand.intLit(r)};
+                } else {
+                    // HIR has no negative literals, so a negative result
+                    // keeps its instruction but is still propagated
+                    for (int i = 1; i < in.opr.length; i++)
+                        substitute(known, in, i);
+                }
+                define(known, in.opr[0], r);
+            } else if (op == HIROp.JUMP) {
+                known.clear();
+            } else if (op.isJump()) {
+                Boolean taken = branch(known, in);
+                if (taken == null) {
+                    for (int i = 0; i < in.opr.length - 1; i++)
+                        substitute(known, in, i);
+                } else if (taken) {
+                    in.op = HIROp.JUMP;
+                    in.opr = new HIROperand[] {in.target()};
+                    known.clear();
+                } else {
+                    continue;
+                }
+            } else if (op == HIROp.ARG || op == HIROp.WRITE) {
+                substitute(known, in, 0);
+            } else if (op == HIROp.RETF) {
+                substitute(known, in, 1);
+                known.clear();
+            } else if (op == HIROp.RET) {
+                known.clear();
+            } else if (op == HIROp.READ || op == HIROp.ARRG || op == HIROp.RECG) {
+                define(known, in.opr[0], null);
+            } else if (op == HIROp.ARRA || op == HIROp.RECA) {
+                substitute(known, in, 1);
+                define(known, in.opr[0], null);
+            } else if (op == HIROp.ARRS) {
+                substitute(known, in, 1);
+                substitute(known, in, 2);
+            } else if (op == HIROp.RECS) {
+                substitute(known, in, 2);
+            } else if (op == HIROp.CALL || op == HIROp.CALLF) {
+                if (op == HIROp.CALLF)
+                    define(known, in.opr[0], null);
+                // the callee may write any global
+                Iterator<HIROperand> it = known.keySet().iterator();
+                while (it.hasNext())
+                    if (it.next().is(HIROperand.Kind.GLOBAL))
+                        it.remove();
+            }
+            res.add(in);
+        }
+        return res;
+    }
+
+    private static Integer value(Map<HIROperand, Integer> known, HIROperand opr) {
+        if (opr.is(HIROperand.Kind.INT))
+            return opr.n;
+        return known.get(opr);
+    }
+
+    private static void substitute(Map<HIROperand, Integer> known, HIRInstr in, int i) {
+        Integer v = known.get(in.opr[i]);
+        if (v != null && v >= 0)
+            in.opr[i] = HIROperand.intLit(v);
+    }
+
+    private static void define(Map<HIROperand, Integer> known, HIROperand dst, Integer v) {
+        if (v == null)
+            known.remove(dst);
+        else
+            known.put(dst, v);
+    }
+
+    // The result of an instruction on constants, same as the interpreter
+    // computes it; null when it would raise an error at run time
+    private static Integer eval(HIROp op, int a, int b) {
+        switch (op) {
+        case ADD: return a + b;
+        case SUB: return a - b;
+        case MULT: return a * b;
+        case DIV: return b == 0 ? null : a / b;
+        case MOD: return b == 0 ? null : a % b;
+        case OR: return a != 0 || b != 0 ? 1 : 0;
+        case AND: return a != 0 && b != 0 ? 1 : 0;
+        case GT: return a > b ? 1 : 0;
+        case GTE: return a >= b ? 1 : 0;
+        case LT: return a < b ? 1 : 0;
+        case LTE: return a <= b ? 1 : 0;
+        case EQ: return a == b ? 1 : 0;
+        case NEQ: return a != b ? 1 : 0;
+        case COMP: return -a;
+        case NOT: return a == 0 ? 1 : 0;
+        case MOVE: return a;
+        default: return null;
+        }
+    }
+
+    // Whether a conditional jump is taken, or null when it is not known
+    private static Boolean branch(Map<HIROperand, Integer> known, HIRInstr in) {
+        Integer a = value(known, in.opr[0]);
+        if (a == null)
+            return null;
+        if (in.op == HIROp.JT) return a != 0;
+        if (in.op == HIROp.JF) return a == 0;
+        Integer b = value(known, in.opr[1]);
+        if (b == null)
+            return null;
+        if (in.op == HIROp.JEQ) return a.intValue() == b.intValue();
+        if (in.op == HIROp.JNEQ) return a.intValue() != b.intValue();
+        if (in.op == HIROp.JLT) return a < b;
+        return a <= b;
+    }
+
+    // **********************************************************************
+    // Dead temporaries
+    // **********************************************************************
+    private void removeDeadTemps(HIRFunction fn) {
+        // Removing a definition can make the ones feeding it dead in turn
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            List<HIRInstr> code = fn.code();
+            HIRLiveness live = new HIRLiveness(fn);
+            List<HIRInstr> res = new ArrayList<HIRInstr>(code.size());
+            for (int i = 0; i < code.size(); i++) {
+                HIRInstr in = code.get(i);
+                if (isPure(in) && in.opr[0].is(HIROperand.Kind.TEMP)
+                        && !live.liveOut[i].get(live.temps.get(in.opr[0])))
+                    changed = true;
+                else
+                    res.add(in);
+            }
+            fn.setCode(res);
+        }
+    }
+
+    // An instruction that only computes its first operand; a division is
+    // only pure when it cannot fail
+    private static boolean isPure(HIRInstr in) {
+        if (in.op == null)
+            return false;
+        if (in.op == HIROp.DIV || in.op == HIROp.MOD) {
+            HIROperand b = in.opr[2];
+            return b.is(HIROperand.Kind.INT) && b.n != 0;
+        }
+        return in.op.isBinary() || in.op.isUnary();
+    }
+
+    // **********************************************************************
+    // Moves
+    //
+    // An assignment is compiled into a temporary that is then moved to the
+    // variable:
+    //
+    //     add &1, @1, 1      =>     add @1, @1, 1
+    //     move @1, &1
+    //
+    // and value numbering leaves moves like these behind too, as well as
+    // moves of a variable to itself.
+    // **********************************************************************
+    private void coalesceMoves(HIRFunction fn) {
+        List<HIRInstr> code = fn.code();
+        HIRLiveness live = null;
+        List<HIRInstr> res = new ArrayList<HIRInstr>(code.size());
+        for (int i = 0; i < code.size(); i++) {
+            HIRInstr in = code.get(i);
+            if (in.op == HIROp.MOVE && in.opr[0].equals(in.opr[1]))
+                continue;
+            res.add(in);
+            HIRInstr next = i + 1 < code.size() ? code.get(i + 1) : null;
+            if (next == null || next.op != HIROp.MOVE || in.op == null || !(in.op.isBinary() || in.op.isUnary())
+                    || !in.opr[0].is(HIROperand.Kind.TEMP) || !next.opr[1].equals(in.opr[0])
+                    || next.opr[0].equals(in.opr[0]))
+                continue;
+            if (live == null)
+                live = new HIRLiveness(fn);
+            if (!live.liveOut[i + 1].get(live.temps.get(in.opr[0]))) {
+                in.opr[0] = next.opr[0];
+                i++;
+            }
+        }
+        fn.setCode(res);
+    }
+
+    // **********************************************************************
+    // Jumps
+    //
+    // A condition is compiled into a temporary that jt tests, followed by a
+    // jump to where the code goes when it is false:
+    //
+    //     lte &0, @1, @0            jlt @0, @1, ~6
+    //     jt &0, ~8          =>     ~8:
+    //     jump ~6
+    //     ~8:
+    //
+    // so every test of a loop runs three instructions where one will do.
+    // HIR only has jeq, jneq, jlt and jlte, so a > or >= swaps its operands.
+    // **********************************************************************
+
+    // Make jump the comparing jump for comparison op of a and b, taken
+    // when the comparison is true
+    private static void compareJump(HIRInstr jump, HIROp op, HIROperand a, HIROperand b) {
+        HIROperand target = jump.target();
+        switch (op) {
+        case EQ: jump.op = HIROp.JEQ; break;
+        case NEQ: jump.op = HIROp.JNEQ; break;
+        case LT: jump.op = HIROp.JLT; break;
+        case LTE: jump.op = HIROp.JLTE; break;
+        case GT: jump.op = HIROp.JLT; break;
+        default: jump.op = HIROp.JLTE; break;
+        }
+        boolean swap = op == HIROp.GT || op == HIROp.GTE;
+        jump.opr = new HIROperand[] {swap ? b : a, swap ? a : b, target};
+    }
+
+    private static final Map<HIROp, HIROp> NEGATED = new EnumMap<HIROp, HIROp>(HIROp.class);
+    static {
+        HIROp[] pairs = {HIROp.EQ, HIROp.NEQ, HIROp.LT, HIROp.GTE, HIROp.LTE, HIROp.GT,
+                HIROp.JT, HIROp.JF, HIROp.JEQ, HIROp.JNEQ};
+        for (int i = 0; i < pairs.length; i += 2) {
+            NEGATED.put(pairs[i], pairs[i + 1]);
+            NEGATED.put(pairs[i + 1], pairs[i]);
+        }
+    }
+
+    // A comparison into a temporary that only the jt or jf right after it
+    // reads becomes one comparing jump
+    private void fuseCompares(HIRFunction fn) {
+        List<HIRInstr> code = fn.code();
+        HIRLiveness live = null;
+        List<HIRInstr> res = new ArrayList<HIRInstr>(code.size());
+        for (int i = 0; i < code.size(); i++) {
+            HIRInstr in = code.get(i);
+            HIRInstr next = i + 1 < code.size() ? code.get(i + 1) : null;
+            if (next != null && (next.op == HIROp.JT || next.op == HIROp.JF)
+                    && in.op != null && in.op.isBinary() && NEGATED.containsKey(in.op)
+                    && in.opr[0].is(HIROperand.Kind.TEMP) && next.opr[0].equals(in.opr[0])) {
+                if (live == null)
+                    live = new HIRLiveness(fn);
+                if (!live.liveOut[i + 1].get(live.temps.get(in.opr[0]))) {
+                    HIROp op = next.op == HIROp.JT ? in.op : NEGATED.get(in.op);
+                    compareJump(next, op, in.opr[1], in.opr[2]);
+                    continue;
+                }
+            }
+            res.add(in);
+        }
+        fn.setCode(res);
+    }
+
+    // Every jump to a label where a jump comes next goes where that one
+    // goes, to the end of the chain
+    private void threadJumps(HIRFunction fn) {
+        List<HIRInstr> code = fn.code();
+        Map<HIROperand, HIROperand> next = new HashMap<HIROperand, HIROperand>();
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i).label == null)
+                continue;
+            int j = i + 1;
+            while (j < code.size() && code.get(j).op == null)
+                j++;
+            if (j < code.size() && code.get(j).op == HIROp.JUMP)
+                next.put(code.get(i).label, code.get(j).target());
+        }
+
+        for (HIRInstr in : code) {
+            if (!in.isJump())
+                continue;
+            HIROperand target = in.target();
+            Set<HIROperand> seen = new HashSet<HIROperand>();
+            while (next.containsKey(target) && seen.add(target))
+                target = next.get(target);
+            in.opr[in.opr.length - 1] = target;
+        }
+        // the jumps changed in place
+        fn.setCode(code);
+    }
+
+    // A conditional jump over an unconditional one is turned around:
+    //
+    //     jt &0, ~8                 jf &0, ~6
+    //     jump ~6            =>     ~8:
+    //     ~8:
+    //
+    // jlt and jlte swap their operands, as not a < b is b <= a.
+    private List<HIRInstr> invertBranches(List<HIRInstr> code) {
+        List<HIRInstr> res = new ArrayList<HIRInstr>(code.size());
+        for (int i = 0; i < code.size(); i++) {
+            HIRInstr in = code.get(i);
+            res.add(in);
+            if (!in.isJump() || in.op == HIROp.JUMP || i + 1 >= code.size())
+                continue;
+            HIRInstr jump = code.get(i + 1);
+            if (jump.op != HIROp.JUMP || !jumpsToNext(code, i + 1, in.target()))
+                continue;
+            if (in.op == HIROp.JLT || in.op == HIROp.JLTE) {
+                in.op = in.op == HIROp.JLT ? HIROp.JLTE : HIROp.JLT;
+                in.opr = new HIROperand[] {in.opr[1], in.opr[0], jump.target()};
+            } else {
+                in.op = NEGATED.get(in.op);
+                in.opr[in.opr.length - 1] = jump.target();
+            }
+            i++;
+        }
+        return res;
+    }
+
+    // **********************************************************************
+    // Dead code, labels and jumps
+    //
+    // StmtList puts a label after every statement, and the code of an if or
+    // a loop jumps around the code it skips even when that ends with a
+    // return. Lines after a jump or a return are only reached through a
+    // label that is jumped to, a jump to the line right after it (past
+    // labels only) goes nowhere, and a label that is not jumped to marks
+    // nothing. Every removal can make more of them, so the three are
+    // repeated until there is nothing left to remove.
+    // **********************************************************************
+    private List<HIRInstr> removeDeadCode(List<HIRInstr> code) {
+        boolean changed = true;
+        while (changed) {
+            Set<HIROperand> targets = HIRFunction.targets(code);
+
+            List<HIRInstr> res = new ArrayList<HIRInstr>(code.size());
+            boolean reached = true;
+            for (int i = 0; i < code.size(); i++) {
+                HIRInstr in = code.get(i);
+                if (in.label != null) {
+                    if (!targets.contains(in.label))
+                        continue;
+                    reached = true;
+                } else if (in.op != null) {
+                    if (!reached || in.isJump() && jumpsToNext(code, i, in.target()))
+                        continue;
+                    if (in.endsFlow())
+                        reached = false;
+                }
+                res.add(in);
+            }
+            changed = res.size() < code.size();
+            code = res;
+        }
+        return code;
+    }
+
+    // Whether target is a label between line i and the next instruction.
+    // The operands of a jump are only read, so a conditional jump there goes
+    // nowhere either way.
+    private static boolean jumpsToNext(List<HIRInstr> code, int i, HIROperand target) {
+        for (int j = i + 1; j < code.size() && code.get(j).op == null; j++)
+            if (target.equals(code.get(j).label))
+                return true;
+        return false;
+    }
+}
@@ -0,0 +1,742 @@
+import java.io.*;
+import java.util.*;
+
+// **********************************************************************
+// HIRVM: an interpreter for the HIR text produced by HIRCompiler.
+//
+// The program is loaded once into flat int arrays: every operand is resolved
+// to a (kind, value) pair and every label to an instruction index, so the
+// dispatch loop never looks at a String. The semantics (and the error
+// messages) follow HIRInterpreter.jar.
+//
+// usage: HIRVM [-count] <HIR_File>
+// **********************************************************************
+public class HIRVM {
+    // Opcodes, in the order of their mnemonics below
+    static final int ADD = 0, SUB = 1, MULT = 2, DIV = 3, MOD = 4, OR = 5, AND = 6,
+            GT = 7, GTE = 8, LT = 9, LTE = 10, EQ = 11, NEQ = 12, COMP = 13, NOT = 14,
+            MOVE = 15, ARRG = 16, ARRS = 17, ARRA = 18, RECG = 19, RECS = 20, RECA = 21,
+            ARG = 22, CALL = 23, CALLF = 24, READ = 25, WRITE = 26, JT = 27, JF = 28,
+            JEQ = 29, JNEQ = 30, JLT = 31, JLTE = 32, JUMP = 33, RET = 34, RETF = 35,
+            EFUNC = 36;
+
+    static final String[] MNEMONICS = {
+        "add", "sub", "mult", "div", "mod", "or", "and",
+        "gt", "gte", "lt", "lte", "eq", "neq", "comp", "not",
+        "move", "arrg", "arrs", "arra", "recg", "recs", "reca",
+        "arg", "call", "callf", "read", "write", "jt", "jf",
+        "jeq", "jneq", "jlt", "jlte", "jump", "ret", "retf",
+        "efunc"
+    };
+
+    // Operand kinds. BAD operands carry an index into badOperands and raise
+    // their message only when they are executed, like the reference interpreter.
+    static final int NONE = 0, CONST = 1, LOCAL = 2, TEMP = 3, PARAM = 4, GLOBAL = 5,
+            STRING = 6, LABEL = 7, PROC = 8, BAD = 9;
+
+    // Each instruction takes STRIDE ints: opcode, then (kind, value) x 3
+    static final int STRIDE = 7;
+
+    private static final Map<String, Integer> opcodes = new HashMap<String, Integer>();
+    static {
+        for (int i = 0; i < MNEMONICS.length; i++)
+            opcodes.put(MNEMONICS[i], i);
+    }
+
+    static class Proc {
+        String name;
+        int numVar, numTemp;
+        int size;
+        int[] code = new int[16 * STRIDE];
+        int[] lines = new int[16];
+
+        Proc(String name, int numVar, int numTemp) {
+            this.name = name;
+            this.numVar = numVar;
+            this.numTemp = numTemp;
+        }
+    }
+
+    static class Frame {
+        Proc proc;
+        int pc;
+        int[] params, locals, temps;
+        boolean hasReturn;
+        int returnValue;
+
+        Frame(Proc proc, int[] params) {
+            this.proc = proc;
+            this.params = params;
+            locals = new int[proc.numVar];
+            temps = new int[proc.numTemp];
+        }
+    }
+
+    static class VMException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        VMException(String msg) {
+            super(msg);
+        }
+    }
+
+    private List<String> strings = new ArrayList<String>();
+    private List<Proc> procs = new ArrayList<Proc>();
+    private List<String> badOperands = new ArrayList<String>();
+    private Proc entry;
+    private int globalNum;
+
+    private int[] globals;
+    private List<int[]> arrayHeap;
+    private List<int[]> recordHeap;
+    private int[] args = new int[8];
+    private int argCnt;
+    private Scanner input;
+    private PrintStream out;
+    private long executed;
+
+    public static void main(String[] args) throws IOException {
+        boolean count = false;
+        String fileHIR = null;
+        for (String arg : args) {
+            if (arg.equals("-count"))
+                count = true;
+            else
+                fileHIR = arg;
+        }
+        if (fileHIR == null) {
+            System.err.println("usage: HIRVM [-count] <HIR_File>");
+            System.exit(-1);
+        }
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)), false);
+        HIRVM vm = new HIRVM();
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(fileHIR));
+            vm.load(reader);
+            reader.close();
+            vm.run(new Scanner(System.in), out);
+            out.println("Interpreter done.");
+        } catch (VMException ex) {
+            out.println(ex.getMessage());
+        } catch (FileNotFoundException ex) {
+            out.println("File " + fileHIR + " not found!");
+        } catch (Exception ex) {
+            out.println("There are some errors.");
+        }
+        out.flush();
+        if (count)
+            System.err.println("Executed instructions: " + vm.executed);
+    }
+
+    public long executedCount() {
+        return executed;
+    }
+
+    // **********************************************************************
+    // Loading
+    // **********************************************************************
+    public void load(BufferedReader reader) throws IOException, VMException {
+        Map<String, Integer> procIndex = new HashMap<String, Integer>();
+        List<Map<Integer, Integer>> procLabels = new ArrayList<Map<Integer, Integer>>();
+        // (proc, instruction, operand slot) of every label and call target to fix up
+        List<int[]> labelRefs = new ArrayList<int[]>();
+        List<int[]> procRefs = new ArrayList<int[]>();
+        List<String> procRefNames = new ArrayList<String>();
+
+        boolean strings = true;
+        boolean header = false;
+        String entryName = null;
+        Proc cur = null;
+        Map<Integer, Integer> labels = null;
+
+        String line;
+        int lineNum = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNum++;
+            line = line.trim();
+            if (line.length() == 0 || line.charAt(0) == '#')
+                continue;
+
+            String op = mnemonic(line);
+            if (strings) {
+                if (op.equals("str")) {
+                    this.strings.add(parseString(line, lineNum));
+                    continue;
+                }
+                if (!op.equals("entry"))
+                    throw syntaxError(lineNum);
+                String[] opr = operands(line, op);
+                if (opr.length != 2 || !isProcName(opr[0]) || !isNumber(opr[1]))
+                    throw syntaxError(lineNum);
+                entryName = opr[0];
+                globalNum = Integer.parseInt(opr[1]);
+                strings = false;
+                continue;
+            }
+
+            line = stripComment(line);
+            op = mnemonic(line);
+            if (cur == null && !header) {
+                String[] opr = operands(line, op);
+                if (!op.equals("func") || opr.length != 1 || !isProcName(opr[0]))
+                    throw syntaxError(lineNum);
+                cur = new Proc(opr[0], 0, 0);
+                header = true;
+                continue;
+            }
+            if (header) {
+                String[] opr = operands(line, op);
+                if (!op.equals("funci") || opr.length != 2 || !isNumber(opr[0]) || !isNumber(opr[1]))
+                    throw syntaxError(lineNum);
+                cur.numVar = Integer.parseInt(opr[0]);
+                cur.numTemp = Integer.parseInt(opr[1]);
+                labels = new HashMap<Integer, Integer>();
+                header = false;
+                continue;
+            }
+
+            if (line.endsWith(":")) {
+                String label = line.substring(0, line.length() - 1).trim();
+                if (label.length() < 2 || label.charAt(0) != '~' || !isNumber(label.substring(1).trim()))
+                    throw syntaxError(lineNum);
+                labels.put(Integer.parseInt(label.substring(1).trim()), cur.size);
+                continue;
+            }
+
+            Integer code = op.equals("func") || op.equals("funci") ? null : opcodes.get(op);
+            if (code == null)
+                throw syntaxError(lineNum);
+            String[] opr = operands(line, op);
+            if (opr.length > 3)
+                throw syntaxError(lineNum);
+
+            int at = emit(cur, code, lineNum);
+            for (int i = 0; i < opr.length; i++) {
+                int slot = at + 1 + 2 * i;
+                String s = opr[i];
+                if (!resolveOperand(cur, s, slot))
+                    throw syntaxError(lineNum);
+                if (cur.code[slot] == LABEL)
+                    labelRefs.add(new int[] {procs.size(), slot, cur.code[slot + 1]});
+                else if (cur.code[slot] == PROC) {
+                    procRefs.add(new int[] {procs.size(), slot});
+                    procRefNames.add(s);
+                }
+            }
+            checkShape(cur, at, code, opr.length);
+
+            if (code == EFUNC) {
+                if (cur.code[at + 1] != PROC || !procRefNames.get(procRefNames.size() - 1).equals(cur.name))
+                    throw syntaxError(lineNum);
+                procRefs.remove(procRefs.size() - 1);
+                procRefNames.remove(procRefNames.size() - 1);
+                procIndex.put(cur.name, procs.size());
+                procs.add(cur);
+                procLabels.add(labels);
+                cur = null;
+                labels = null;
+            }
+        }
+        if (cur != null || strings || header)
+            throw syntaxError(lineNum);
+        if (procs.isEmpty() || !procIndex.containsKey(entryName))
+            throw new VMException("No entry found");
+        entry = procs.get(procIndex.get(entryName));
+
+        // Labels become instruction indexes; an unknown label only fails when used
+        for (int[] ref : labelRefs) {
+            Proc p = procs.get(ref[0]);
+            Integer pc = procLabels.get(ref[0]).get(ref[2]);
+            if (pc == null)
+                bad(p, ref[1], "IR Error: invalid label");
+            else
+                p.code[ref[1] + 1] = pc;
+        }
+        // Procedure names become indexes into procs
+        for (int i = 0; i < procRefs.size(); i++) {
+            int[] ref = procRefs.get(i);
+            Proc p = procs.get(ref[0]);
+            Integer target = procIndex.get(procRefNames.get(i));
+            int op = p.code[ref[1] - ref[1] % STRIDE];
+            if (op == RET || op == RETF) {
+                if (!procRefNames.get(i).equals(p.name))
+                    bad(p, ref[1], "IR Error: invalid return instruction");
+            } else if (target == null)
+                bad(p, ref[1], "IR Error: invalid call instruction");
+            else
+                p.code[ref[1] + 1] = target;
+        }
+    }
+
+    private int emit(Proc p, int code, int line) {
+        if ((p.size + 1) * STRIDE > p.code.length) {
+            p.code = Arrays.copyOf(p.code, p.code.length * 2);
+            p.lines = Arrays.copyOf(p.lines, p.lines.length * 2);
+        }
+        int at = p.size * STRIDE;
+        p.code[at] = code;
+        p.lines[p.size++] = line;
+        return at;
+    }
+
+    private boolean resolveOperand(Proc p, String s, int slot) {
+        if (s.length() == 0)
+            return false;
+        char c = s.charAt(0);
+        int kind;
+        String num;
+        if (Character.isDigit(c)) {
+            kind = CONST;
+            num = s;
+        } else if (c == '@' || c == '$' || c == '%') {
+            kind = c == '@' ? LOCAL : c == '$' ? GLOBAL : PARAM;
+            int underscore = s.indexOf('_');
+            num = underscore < 0 ? s.substring(1) : s.substring(1, underscore);
+        } else if (c == '&') {
+            kind = TEMP;
+            num = s.substring(1);
+        } else if (c == '?') {
+            kind = STRING;
+            num = s.substring(1);
+        } else if (c == '~') {
+            kind = LABEL;
+            num = s.substring(1).trim();
+        } else if (Character.isLetter(c) || c == '_') {
+            p.code[slot] = PROC;
+            p.code[slot + 1] = -1;
+            return true;
+        } else {
+            return false;
+        }
+        if (!isNumber(num))
+            return false;
+        int value = Integer.parseInt(num);
+        p.code[slot] = kind;
+        p.code[slot + 1] = value;
+
+        // Locals, temporaries, globals and strings have a known size, so a
+        // bad subscript is found here instead of on every access
+        if (kind == LOCAL && value >= p.numVar || kind == GLOBAL && value >= globalNum)
+            bad(p, slot, "IR Error: variable subscript out of bounds");
+        else if (kind == TEMP && value >= p.numTemp)
+            bad(p, slot, "IR Error: temporary subscript out of bounds");
+        else if (kind == STRING && value >= strings.size())
+            bad(p, slot, "IR Error: invalid operand");
+        return true;
+    }
+
+    // Operands an instruction requires to be constants are checked once here
+    private void checkShape(Proc p, int at, int code, int n) {
+        switch (code) {
+        case ARG:
+            if (p.code[at + 3] != CONST)
+                bad(p, at + 3, "IR Error: invalid argument declaration");
+            break;
+        case CALL:
+            if (p.code[at + 3] != CONST)
+                bad(p, at + 3, "IR Error: invalid call instruction");
+            break;
+        case CALLF:
+            if (p.code[at + 5] != CONST)
+                bad(p, at + 5, "IR Error: invalid call instruction");
+            break;
+        case RECG:
+            if (p.code[at + 5] != CONST)
+                bad(p, at + 5, "IR Error: invalid record reference");
+            break;
+        case RECS:
+            if (p.code[at + 3] != CONST)
+                bad(p, at + 3, "IR Error: invalid record reference");
+            break;
+        }
+    }
+
+    private void bad(Proc p, int slot, String msg) {
+        p.code[slot] = BAD;
+        p.code[slot + 1] = badOperands.size();
+        badOperands.add(msg);
+    }
+
+    private static String mnemonic(String line) {
+        int space = line.indexOf(' ');
+        return space < 0 ? line : line.substring(0, space);
+    }
+
+    private static String[] operands(String line, String op) {
+        String rest = line.substring(op.length()).trim();
+        if (rest.length() == 0)
+            return new String[0];
+        String[] opr = rest.split(",");
+        for (int i = 0; i < opr.length; i++)
+            opr[i] = opr[i].trim();
+        return opr;
+    }
+
+    private static String stripComment(String line) {
+        int hash = line.indexOf('#');
+        return hash > 0 ? line.substring(0, hash).trim() : line;
+    }
+
+    private String parseString(String line, int lineNum) throws VMException {
+        String lit = line.substring(3).trim();
+        if (lit.length() < 2 || lit.charAt(0) != '"' || lit.charAt(lit.length() - 1) != '"')
+            throw syntaxError(lineNum);
+        return lit.substring(1, lit.length() - 1).replace("\\n", "\n").replace("\\t", "\t");
+    }
+
+    private static boolean isNumber(String s) {
+        if (s.length() == 0 || s.length() > 10)
+            return false;
+        for (int i = 0; i < s.length(); i++)
+            if (!Character.isDigit(s.charAt(i)))
+                return false;
+        return Long.parseLong(s) <= Integer.MAX_VALUE;
+    }
+
+    private static boolean isProcName(String s) {
+        return s.length() > 0 && (Character.isLetter(s.charAt(0)) || s.charAt(0) == '_');
+    }
+
+    private static VMException syntaxError(int line) {
+        return new VMException("Syntax error at line " + line);
+    }
+
+    // **********************************************************************
+    // Execution
+    // **********************************************************************
+    public void run(Scanner input, PrintStream out) throws VMException {
+        this.input = input;
+        this.out = out;
+        globals = new int[globalNum];
+        arrayHeap = new ArrayList<int[]>();
+        recordHeap = new ArrayList<int[]>();
+        recordHeap.add(new int[0]);
+        argCnt = 0;
+        executed = 0;
+
+        Frame[] stack = new Frame[64];
+        int depth = 0;
+        Frame f = new Frame(entry, new int[0]);
+        int[] code = f.proc.code;
+        int pc = 0;
+        long count = 0;
+        try {
+            while (true) {
+                int at = pc * STRIDE;
+                count++;
+                switch (code[at]) {
+                case ADD:
+                    set(f, code, at + 1, get(f, code, at + 3) + get(f, code, at + 5));
+                    pc++;
+                    break;
+                case SUB:
+                    set(f, code, at + 1, get(f, code, at + 3) - get(f, code, at + 5));
+                    pc++;
+                    break;
+                case MULT:
+                    set(f, code, at + 1, get(f, code, at + 3) * get(f, code, at + 5));
+                    pc++;
+                    break;
+                case DIV: {
+                    int b = get(f, code, at + 5);
+                    if (b == 0)
+                        throw new VMException("Exception: division  by  zero");
+                    set(f, code, at + 1, get(f, code, at + 3) / b);
+                    pc++;
+                    break;
+                }
+                case MOD: {
+                    int b = get(f, code, at + 5);
+                    if (b == 0)
+                        throw new VMException("Exception: division  by  zero");
+                    set(f, code, at + 1, get(f, code, at + 3) % b);
+                    pc++;
+                    break;
+                }
+                case OR:
+                    set(f, code, at + 1, get(f, code, at + 3) != 0 || get(f, code, at + 5) != 0 ? 1 : 0);
+                    pc++;
+                    break;
+                case AND:
+                    set(f, code, at + 1, get(f, code, at + 3) != 0 && get(f, code, at + 5) != 0 ? 1 : 0);
+                    pc++;
+                    break;
+                case GT:
+                    set(f, code, at + 1, get(f, code, at + 3) > get(f, code, at + 5) ? 1 : 0);
+                    pc++;
+                    break;
+                case GTE:
+                    set(f, code, at + 1, get(f, code, at + 3) >= get(f, code, at + 5) ? 1 : 0);
+                    pc++;
+                    break;
+                case LT:
+                    set(f, code, at + 1, get(f, code, at + 3) < get(f, code, at + 5) ? 1 : 0);
+                    pc++;
+                    break;
+                case LTE:
+                    set(f, code, at + 1, get(f, code, at + 3) <= get(f, code, at + 5) ? 1 : 0);
+                    pc++;
+                    break;
+                case EQ:
+                    set(f, code, at + 1, get(f, code, at + 3) == get(f, code, at + 5) ? 1 : 0);
+                    pc++;
+                    break;
+                case NEQ:
+                    set(f, code, at + 1, get(f, code, at + 3) != get(f, code, at + 5) ? 1 : 0);
+                    pc++;
+                    break;
+                case COMP:
+                    set(f, code, at + 1, -get(f, code, at + 3));
+                    pc++;
+                    break;
+                case NOT:
+                    set(f, code, at + 1, get(f, code, at + 3) == 0 ? 1 : 0);
+                    pc++;
+                    break;
+                case MOVE:
+                    set(f, code, at + 1, get(f, code, at + 3));
+                    pc++;
+                    break;
+                case ARRG: {
+                    int index = get(f, code, at + 5);
+                    int[] array = array(f, code, at + 3);
+                    if (index < 0 || index >= array.length)
+                        throw new VMException("Exception: array subscript out of bounds");
+                    set(f, code, at + 1, array[index]);
+                    pc++;
+                    break;
+                }
+                case ARRS: {
+                    int index = get(f, code, at + 3);
+                    int[] array = array(f, code, at + 1);
+                    int value = get(f, code, at + 5);
+                    if (index < 0 || index >= array.length)
+                        throw new VMException("Exception: array subscript out of bounds");
+                    array[index] = value;
+                    pc++;
+                    break;
+                }
+                case ARRA:
+                    arrayHeap.add(new int[get(f, code, at + 3)]);
+                    set(f, code, at + 1, arrayHeap.size() - 1);
+                    pc++;
+                    break;
+                case RECG: {
+                    int field = operandConst(code, at + 5);
+                    int[] record = record(f, code, at + 3);
+                    if (field < 0 || field >= record.length)
+                        throw new VMException("IR Error: record subscript out of bounds");
+                    set(f, code, at + 1, record[field]);
+                    pc++;
+                    break;
+                }
+                case RECS: {
+                    int field = operandConst(code, at + 3);
+                    int[] record = record(f, code, at + 1);
+                    if (field < 0 || field >= record.length)
+                        throw new VMException("IR Error: record subscript out of bounds");
+                    record[field] = get(f, code, at + 5);
+                    pc++;
+                    break;
+                }
+                case RECA:
+                    recordHeap.add(new int[get(f, code, at + 3)]);
+                    set(f, code, at + 1, recordHeap.size() - 1);
+                    pc++;
+                    break;
+                case ARG: {
+                    int index = operandConst(code, at + 3);
+                    if (index != argCnt)
+                        throw new VMException("IR Error: invalid argument declaration");
+                    if (argCnt == args.length)
+                        args = Arrays.copyOf(args, args.length * 2);
+                    args[argCnt++] = get(f, code, at + 1);
+                    pc++;
+                    break;
+                }
+                case CALL:
+                case CALLF: {
+                    int target = code[at] == CALL ? at + 1 : at + 3;
+                    int n = operandConst(code, target + 2);
+                    if (n > 0 && argCnt != n || code[target] != PROC)
+                        throw new VMException("IR Error: invalid call instruction");
+                    Frame callee = new Frame(procs.get(code[target + 1]), Arrays.copyOf(args, argCnt));
+                    argCnt = 0;
+                    f.pc = pc;
+                    if (depth == stack.length)
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    stack[depth++] = f;
+                    f = callee;
+                    code = f.proc.code;
+                    pc = 0;
+                    break;
+                }
+                case READ: {
+                    out.flush();
+                    int value;
+                    try {
+                        value = input.nextInt();
+                    } catch (Exception ex) {
+                        throw new VMException("Exception: invalid user input to a READ instruction");
+                    }
+                    set(f, code, at + 1, value);
+                    pc++;
+                    break;
+                }
+                case WRITE:
+                    if (code[at + 1] == STRING)
+                        out.print(strings.get(code[at + 2]));
+                    else
+                        out.print(get(f, code, at + 1));
+                    pc++;
+                    break;
+                case JT:
+                    pc = get(f, code, at + 1) != 0 ? label(code, at + 3) : pc + 1;
+                    break;
+                case JF:
+                    pc = get(f, code, at + 1) == 0 ? label(code, at + 3) : pc + 1;
+                    break;
+                case JEQ:
+                    pc = get(f, code, at + 1) == get(f, code, at + 3) ? label(code, at + 5) : pc + 1;
+                    break;
+                case JNEQ:
+                    pc = get(f, code, at + 1) != get(f, code, at + 3) ? label(code, at + 5) : pc + 1;
+                    break;
+                case JLT:
+                    pc = get(f, code, at + 1) < get(f, code, at + 3) ? label(code, at + 5) : pc + 1;
+                    break;
+                case JLTE:
+                    pc = get(f, code, at + 1) <= get(f, code, at + 3) ? label(code, at + 5) : pc + 1;
+                    break;
+                case JUMP:
+                    pc = label(code, at + 1);
+                    break;
+                case RETF:
+                case RET:
+                case EFUNC: {
+                    if (code[at] == RETF) {
+                        f.returnValue = get(f, code, at + 3);
+                        f.hasReturn = true;
+                    }
+                    if (code[at + 1] == BAD)
+                        throw new VMException(badOperands.get(code[at + 2]));
+                    if (depth == 0) {
+                        executed = count;
+                        return;
+                    }
+                    Frame callee = f;
+                    f = stack[--depth];
+                    stack[depth] = null;
+                    code = f.proc.code;
+                    pc = f.pc;
+                    at = pc * STRIDE;
+                    if (code[at] == CALLF) {
+                        if (!callee.hasReturn)
+                            throw new VMException("Exception: failure to return a value from a function procedure");
+                        set(f, code, at + 1, callee.returnValue);
+                    }
+                    pc++;
+                    break;
+                }
+                default:
+                    throw new VMException("IR Error: invalid instruction");
+                }
+            }
+        } catch (VMException ex) {
+            executed = count;
+            f.pc = pc;
+            throw new VMException(trace(stack, depth, f) + ex.getMessage());
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            // only argument subscripts are not checked at load time
+            executed = count;
+            f.pc = pc;
+            throw new VMException(trace(stack, depth, f) + "IR Error: argument subscript out of bounds");
+        }
+    }
+
+    // Same "(line n)" prefixes as the nested interpreters of HIRInterpreter.jar
+    private String trace(Frame[] stack, int depth, Frame f) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++)
+            sb.append("(line ").append(stack[i].proc.lines[stack[i].pc]).append(")");
+        sb.append("(line ").append(f.proc.lines[f.pc]).append(")");
+        return sb.toString();
+    }
+
+    private int get(Frame f, int[] code, int slot) throws VMException {
+        int value = code[slot + 1];
+        switch (code[slot]) {
+        case CONST:
+            return value;
+        case LOCAL:
+            return f.locals[value];
+        case TEMP:
+            return f.temps[value];
+        case PARAM:
+            return f.params[value];
+        case GLOBAL:
+            return globals[value];
+        case BAD:
+            throw new VMException(badOperands.get(value));
+        default:
+            throw new VMException("IR Error: invalid operand");
+        }
+    }
+
+    private void set(Frame f, int[] code, int slot, int v) throws VMException {
+        int value = code[slot + 1];
+        switch (code[slot]) {
+        case LOCAL:
+            f.locals[value] = v;
+            return;
+        case TEMP:
+            f.temps[value] = v;
+            return;
+        case PARAM:
+            f.params[value] = v;
+            return;
+        case GLOBAL:
+            globals[value] = v;
+            return;
+        case BAD:
+            throw new VMException(badOperands.get(value));
+        default:
+            throw new VMException("IR Error: invalid operand");
+        }
+    }
+
+    private int label(int[] code, int slot) throws VMException {
+        if (code[slot] == LABEL)
+            return code[slot + 1];
+        if (code[slot] == BAD)
+            throw new VMException(badOperands.get(code[slot + 1]));
+        throw new VMException("IR Error: invalid operand");
+    }
+
+    private int operandConst(int[] code, int slot) throws VMException {
+        if (code[slot] == BAD)
+            throw new VMException(badOperands.get(code[slot + 1]));
+        return code[slot + 1];
+    }
+
+    private int[] array(Frame f, int[] code, int slot) throws VMException {
+        if (code[slot] == CONST)
+            throw new VMException("IR Error: invalid array reference");
+        int ref = get(f, code, slot);
+        if (ref < 0 || ref >= arrayHeap.size())
+            throw new VMException("IR Error: invalid array reference");
+        return arrayHeap.get(ref);
+    }
+
+    private int[] record(Frame f, int[] code, int slot) throws VMException {
+        if (code[slot] == CONST)
+            throw new VMException("IR Error: invalid record reference");
+        int ref = get(f, code, slot);
+        if (ref < 0 || ref >= recordHeap.size())
+            throw new VMException("IR Error: invalid record reference");
+        if (ref == 0)
+            throw new VMException("Exception: dereferencing a NIL record pointer");
+        return recordHeap.get(ref);
+    }
+}
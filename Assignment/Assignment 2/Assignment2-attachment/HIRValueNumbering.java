@@ -0,0 +1,362 @@
+import java.util.*;
+
+// **********************************************************************
+// HIRValueNumbering: global value numbering and copy propagation over the
+// SSA form of one function body, run by HIROptimizer.
+//
+// The variables are the &, @ and % operands. Globals can be written by any
+// call, so every use of one is a value of its own. The body is put in SSA
+// form without being rewritten: phis go at the iterated dominance frontier
+// of the blocks that write a variable, and a walk down the dominator tree
+// gives every write, phi and the value a variable has on entry a
+// definition of its own. Every definition then has a value number:
+//
+//   - move x, y gives x the number of y;
+//   - an arithmetic or comparing instruction gets the number of the same
+//     instruction on operands with the same numbers, if one dominates it,
+//     and a new number otherwise;
+//   - anything else, and every phi, gets a new number.
+//
+// With the numbers, the code is changed in place:
+//
+//   - an instruction that computes a value already computed is turned into
+//     a move from where that value is. When the variable it was first
+//     computed into has been written since, the first instruction is made
+//     to compute into a new temporary, and moves it on;
+//   - a temporary that is read is replaced with the literal or variable
+//     that holds its value, if that still does where it is read.
+//
+// The moves and temporaries left unread are removed by HIROptimizer after
+// this. Whether a variable still holds a value is known from its
+// definitions: it does when the definition that reaches the read is the
+// one the value was put in it by.
+//
+// A comparison right before the jt or jf on it is left alone, so that it
+// can become one comparing jump (see HIROptimizer.fuseCompares).
+// **********************************************************************
+class HIRValueNumbering {
+    private HIRFunction fn;
+    private List<HIRInstr> code;
+    private List<HIRFunction.BasicBlock> blocks;
+
+    // variables, numbered densely
+    private Map<HIROperand, Integer> vars = new HashMap<HIROperand, Integer>();
+    private List<HIROperand> varList = new ArrayList<HIROperand>();
+
+    // definitions: their value numbers; the one reaching the current line,
+    // by variable
+    private IntList defValue = new IntList();
+    private int[] current;
+
+    // values: where each is kept, a variable and its definition, a literal
+    // or a temporary written only once (ALWAYS), or nowhere it can be read
+    // again (NOWHERE)
+    private List<HIROperand> holder = new ArrayList<HIROperand>();
+    private IntList holderDef = new IntList();
+    private Map<Integer, Integer> constants = new HashMap<Integer, Integer>();
+    private static final int ALWAYS = -1, NOWHERE = -2;
+
+    // instructions computed so far, in the blocks that dominate the current one
+    private Map<Long, Computed> computed = new HashMap<Long, Computed>();
+
+    // moves to put after instructions made to compute into a new temporary
+    private Map<HIRInstr, HIRInstr> movesAfter = new IdentityHashMap<HIRInstr, HIRInstr>();
+    private int nextTemp;
+
+    private static class Computed {
+        HIRInstr in;
+        int value;
+        HIROperand var;     // what it computed into, null if not a variable
+        int def;
+        HIROperand temp;    // the new temporary, once it has one
+    }
+
+    HIRValueNumbering(HIRFunction fn) {
+        this.fn = fn;
+    }
+
+    public void run() {
+        code = fn.code();
+        blocks = fn.blocks();
+        List<HIRFunction.BasicBlock> reachable = fn.dominators();
+        if (reachable.isEmpty())
+            return;
+
+        for (HIRInstr in : code) {
+            if (in.op == null)
+                continue;
+            for (HIROperand opr : in.opr) {
+                if (isVariable(opr) && !vars.containsKey(opr)) {
+                    vars.put(opr, varList.size());
+                    varList.add(opr);
+                }
+                if (opr.is(HIROperand.Kind.TEMP))
+                    nextTemp = Math.max(nextTemp, opr.n + 1);
+            }
+        }
+
+        BitSet[] phis = placePhis(reachable);
+
+        // Every variable has a value on entry, even if it is only garbage
+        current = new int[varList.size()];
+        for (int v = 0; v < varList.size(); v++)
+            current[v] = define(newValue(varList.get(v), defValue.size()));
+
+        // Walk the dominator tree; a block is left once its subtree is done,
+        // and the definitions and instructions it added are dropped then
+        IntList undoVar = new IntList(), undoDef = new IntList();
+        List<Long> added = new ArrayList<Long>();
+        Deque<Object[]> stack = new ArrayDeque<Object[]>();
+        stack.push(new Object[] {reachable.get(0), null});
+        while (!stack.isEmpty()) {
+            Object[] top = stack.pop();
+            HIRFunction.BasicBlock b = (HIRFunction.BasicBlock) top[0];
+            if (top[1] != null) {
+                int[] marks = (int[]) top[1];
+                while (undoVar.size() > marks[0]) {
+                    current[undoVar.pop()] = undoDef.pop();
+                }
+                while (added.size() > marks[1])
+                    computed.remove(added.remove(added.size() - 1));
+                continue;
+            }
+            stack.push(new Object[] {b, new int[] {undoVar.size(), added.size()}});
+
+            BitSet phi = phis[b.index];
+            for (int v = phi.nextSetBit(0); v >= 0; v = phi.nextSetBit(v + 1)) {
+                undoVar.push(v);
+                undoDef.push(current[v]);
+                current[v] = define(newValue(varList.get(v), defValue.size()));
+            }
+            for (int i = b.start; i < b.end; i++)
+                number(i, undoVar, undoDef, added);
+
+            for (HIRFunction.BasicBlock d : b.dominated)
+                stack.push(new Object[] {d, null});
+        }
+
+        if (!movesAfter.isEmpty()) {
+            List<HIRInstr> res = new ArrayList<HIRInstr>(code.size() + movesAfter.size());
+            for (HIRInstr in : code) {
+                res.add(in);
+                HIRInstr move = movesAfter.get(in);
+                if (move != null)
+                    res.add(move);
+            }
+            fn.setCode(res);
+        }
+    }
+
+    private static boolean isVariable(HIROperand opr) {
+        return opr.is(HIROperand.Kind.TEMP) || opr.is(HIROperand.Kind.LOCAL) || opr.is(HIROperand.Kind.PARAM);
+    }
+
+    // **********************************************************************
+    // SSA
+    // **********************************************************************
+
+    // The variables that need a phi at the start of every block
+    private BitSet[] placePhis(List<HIRFunction.BasicBlock> reachable) {
+        // Dominance frontiers
+        List<Set<HIRFunction.BasicBlock>> frontier = new ArrayList<Set<HIRFunction.BasicBlock>>();
+        for (int i = 0; i < blocks.size(); i++)
+            frontier.add(new HashSet<HIRFunction.BasicBlock>());
+        for (HIRFunction.BasicBlock b : reachable) {
+            int preds = 0;
+            for (HIRFunction.BasicBlock p : b.pred)
+                if (p.order >= 0)
+                    preds++;
+            if (preds < 2)
+                continue;
+            for (HIRFunction.BasicBlock p : b.pred) {
+                for (HIRFunction.BasicBlock r = p; r != null && r.order >= 0 && r != b.idom; r = r.idom)
+                    frontier.get(r.index).add(b);
+            }
+        }
+
+        // The blocks that write each variable
+        List<List<HIRFunction.BasicBlock>> writes = new ArrayList<List<HIRFunction.BasicBlock>>();
+        for (int v = 0; v < varList.size(); v++)
+            writes.add(new ArrayList<HIRFunction.BasicBlock>());
+        for (HIRFunction.BasicBlock b : reachable) {
+            for (int i = b.start; i < b.end; i++) {
+                HIRInstr in = code.get(i);
+                if (in.defines() && isVariable(in.opr[0])) {
+                    List<HIRFunction.BasicBlock> w = writes.get(vars.get(in.opr[0]));
+                    if (w.isEmpty() || w.get(w.size() - 1) != b)
+                        w.add(b);
+                }
+            }
+        }
+
+        BitSet[] phis = new BitSet[blocks.size()];
+        for (int i = 0; i < phis.length; i++)
+            phis[i] = new BitSet();
+        Deque<HIRFunction.BasicBlock> work = new ArrayDeque<HIRFunction.BasicBlock>();
+        for (int v = 0; v < varList.size(); v++) {
+            work.addAll(writes.get(v));
+            while (!work.isEmpty()) {
+                for (HIRFunction.BasicBlock f : frontier.get(work.pop().index)) {
+                    if (!phis[f.index].get(v)) {
+                        phis[f.index].set(v);
+                        work.push(f);
+                    }
+                }
+            }
+        }
+        return phis;
+    }
+
+    // A new definition with the given value
+    private int define(int value) {
+        defValue.push(value);
+        return defValue.size() - 1;
+    }
+
+    // A new value, kept in var by definition def
+    private int newValue(HIROperand var, int def) {
+        holder.add(var);
+        holderDef.push(def);
+        return holder.size() - 1;
+    }
+
+    private int constant(int n) {
+        Integer value = constants.get(n);
+        if (value == null) {
+            value = newValue(HIROperand.intLit(n), ALWAYS);
+            constants.put(n, value);
+        }
+        return value;
+    }
+
+    // Whether the value is still where it was put, as seen from here
+    private boolean holds(int value) {
+        int def = holderDef.get(value);
+        if (def == ALWAYS || def == NOWHERE)
+            return def == ALWAYS;
+        return current[vars.get(holder.get(value))] == def;
+    }
+
+    // **********************************************************************
+    // Value numbering
+    // **********************************************************************
+    private void number(int i, IntList undoVar, IntList undoDef, List<Long> added) {
+        HIRInstr in = code.get(i);
+        if (in.op == null)
+            return;
+
+        // What is read: temporaries are replaced with where their value is
+        int first = in.defines() ? 1 : 0;
+        int[] values = new int[in.opr.length];
+        for (int j = first; j < in.opr.length; j++) {
+            HIROperand opr = in.opr[j];
+            Integer v = vars.get(opr);
+            if (v != null) {
+                int value = defValue.get(current[v]);
+                values[j] = value;
+                if (opr.is(HIROperand.Kind.TEMP) && in.readsValue(j) && holds(value))
+                    in.opr[j] = holder.get(value);
+            } else if (opr.is(HIROperand.Kind.INT)) {
+                values[j] = constant(opr.n);
+            } else {
+                values[j] = newValue(null, NOWHERE);
+            }
+        }
+        if (!in.defines())
+            return;
+
+        HIROperand dst = in.opr[0];
+        Integer var = vars.get(dst);
+        int value;
+        if (in.op == HIROp.MOVE) {
+            value = values[1];
+        } else if ((in.op.isBinary() || in.op.isUnary()) && !feedsJump(i)) {
+            int a = values[1], b = in.op.isBinary() ? values[2] : 0;
+            if (commutes(in.op) && a > b) {
+                int t = a;
+                a = b;
+                b = t;
+            }
+            long key = ((long) in.op.ordinal() << 58) | ((long) a << 29) | b;
+            Computed c = computed.get(key);
+            if (c != null) {
+                in.op = HIROp.MOVE;
+                in.opr = new HIROperand[] {dst, holderOf(c)};
+                value = c.value;
+            } else {
+                c = new Computed();
+                c.in = in;
+                c.var = var != null ? dst : null;
+                c.def = defValue.size();
+                c.value = value = newValue(c.var, c.var != null ? c.def : NOWHERE);
+                computed.put(key, c);
+                added.add(key);
+            }
+        } else {
+            value = newValue(var != null ? dst : null, var != null ? defValue.size() : NOWHERE);
+        }
+
+        if (var != null) {
+            undoVar.push(var);
+            undoDef.push(current[var]);
+            current[var] = define(value);
+        }
+    }
+
+    // Where the value of c can be read from here: the variable it was
+    // computed into if that still holds it, a new temporary otherwise
+    private HIROperand holderOf(Computed c) {
+        if (c.temp != null)
+            return c.temp;
+        if (c.var != null && current[vars.get(c.var)] == c.def)
+            return c.var;
+        c.temp = HIROperand.temp(nextTemp++);
+        movesAfter.put(c.in, HIRInstr.of(HIROp.MOVE, c.in.opr[0], c.temp));
+        c.in.opr[0] = c.temp;
+        holder.set(c.value, c.temp);
+        holderDef.set(c.value, ALWAYS);
+        return c.temp;
+    }
+
+    // Whether the instruction at i is a comparison the next line jumps on
+    private boolean feedsJump(int i) {
+        HIRInstr in = code.get(i);
+        if (i + 1 >= code.size() || in.op.ordinal() < HIROp.GT.ordinal() || in.op.ordinal() > HIROp.NEQ.ordinal())
+            return false;
+        HIRInstr next = code.get(i + 1);
+        return (next.op == HIROp.JT || next.op == HIROp.JF) && next.opr[0].equals(in.opr[0]);
+    }
+
+    private static boolean commutes(HIROp op) {
+        return op == HIROp.ADD || op == HIROp.MULT || op == HIROp.AND || op == HIROp.OR
+                || op == HIROp.EQ || op == HIROp.NEQ;
+    }
+
+    // A growable list of ints
+    private static class IntList {
+        private int[] a = new int[64];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        int get(int i) {
+            return a[i];
+        }
+
+        void set(int i, int v) {
+            a[i] = v;
+        }
+
+        void push(int v) {
+            if (size == a.length)
+                a = Arrays.copyOf(a, size * 2);
+            a[size++] = v;
+        }
+
+        int pop() {
+            return a[--size];
+        }
+    }
+}
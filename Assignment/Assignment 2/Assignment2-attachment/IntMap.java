@@ -0,0 +1,79 @@
+// **********************************************************************
+// IntMap: a map from int keys (interned names, see Interner) to values.
+//
+// Open addressing in two parallel arrays, allocated on the first put, as
+// most scopes of a program declare nothing or only a few names.
+// **********************************************************************
+class IntMap<V> {
+    // key + 1 in each slot, 0 when free
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    public IntMap() {
+    }
+
+    public IntMap(IntMap<V> other) {
+        if (other.keys != null) {
+            keys = other.keys.clone();
+            values = other.values.clone();
+        }
+        size = other.size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (keys == null)
+            return null;
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask)
+            if (keys[slot] == key + 1)
+                return (V) values[slot];
+        return null;
+    }
+
+    public void put(int key, V value) {
+        if (keys == null) {
+            keys = new int[8];
+            values = new Object[8];
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key + 1) {
+                values[slot] = value;
+                return;
+            }
+        }
+        keys[slot] = key + 1;
+        values[slot] = value;
+        if (++size * 2 > keys.length)
+            rehash();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0)
+                continue;
+            int slot = hash(oldKeys[i] - 1) & mask;
+            while (keys[slot] != 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import java.util.Arrays;
+
+// **********************************************************************
+// Interner: gives every distinct identifier and string literal of one
+// compilation a dense id, 0, 1, 2, ..., and one canonical String.
+//
+// The scanner interns straight from its buffer: a lexeme seen before is
+// found by its characters, without building a String for it. Symbol
+// tables then key their entries on the id (see IntMap).
+// **********************************************************************
+class Interner {
+    private String[] names = new String[256];
+    private int[] hashes = new int[256];
+    private int size;
+
+    // open addressing: id + 1 of the lexeme in each slot, 0 when free
+    private int[] slots = new int[512];
+
+    public int intern(char[] buf, int off, int len) {
+        int h = 0;
+        for (int i = off; i < off + len; i++)
+            h = 31 * h + buf[i];
+        int mask = slots.length - 1;
+        for (int slot = spread(h) & mask; ; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id < 0) {
+                id = add(new String(buf, off, len), h);
+                slots[slot] = id + 1;
+                if (size * 2 > slots.length)
+                    rehash();
+                return id;
+            }
+            if (hashes[id] == h && matches(names[id], buf, off, len))
+                return id;
+        }
+    }
+
+    public int intern(String s) {
+        return intern(s.toCharArray(), 0, s.length());
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String s, char[] buf, int off, int len) {
+        if (s.length() != len)
+            return false;
+        for (int i = 0; i < len; i++)
+            if (s.charAt(i) != buf[off + i])
+                return false;
+        return true;
+    }
+
+    private int add(String s, int h) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        names[size] = s;
+        hashes[size] = h;
+        return size++;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = spread(hashes[id]) & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = id + 1;
+        }
+    }
+}
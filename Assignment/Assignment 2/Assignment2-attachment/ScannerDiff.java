@@ -0,0 +1,169 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java_cup.runtime.Symbol;
+
+// **********************************************************************
+// ScannerDiff: checks that FastScanner and Yylex scan the same sources
+// the same way: the same tokens with the same lines, columns and values,
+// the same offsets in a TokenStream, and the same diagnostics. It also
+// checks that a TokenStream scanned in parts, cut into many small ones, is
+// the one scanned in one go, with either scanner.
+//
+// The sources are the files given, and with -random n also n random
+// sources made of pieces of SimpleC, good and bad, run together: keywords
+// and names that begin with one, operators, literals with bad escapes,
+// unterminated strings, comments, stray quotes and backslashes at the end
+// of the source, carriage returns.
+//
+// usage: ScannerDiff [-random n] [-seed s] [file ...]
+// **********************************************************************
+public class ScannerDiff {
+    private static final ForkJoinPool POOL = new ForkJoinPool(8);
+
+    private static final String[] PIECES = {
+        "int", "void", "if", "else", "while", "for", "return", "intx", "i", "_", "whilee",
+        "retur", "iff", "Int", "x1", "foo_bar",
+        "{", "}", "(", ")", "[", "]", ",", ";", "=", "==", "+", "+=", "-", "-=", "*", "*=",
+        "/", "/=", "!", "!=", "&", "&&", "|", "||", "<", "<=", ">", ">=", "%",
+        "0", "42", "007", "2147483647", "2147483648", "99999999999999999999",
+        "\"\"", "\"abc\"", "\"a\\tb\\n\"", "\"\\\"\\\\\\'\"", "\"bad\\q\"", "\"x\\", "\"open",
+        "\"", "\\", "// note", "# note", "//", "$", "@", "~", "^", "?", ".", ":", "'",
+        " ", "  ", "\t", "\n", "\r\n", "\r", "\n\n",
+    };
+
+    public static void main(String[] args) throws Exception {
+        int random = 0;
+        long seed = 1;
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-random") && i + 1 < args.length)
+                random = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-seed") && i + 1 < args.length)
+                seed = Long.parseLong(args[++i]);
+            else if (args[i].startsWith("-")) {
+                System.err.println("usage: ScannerDiff [-random n] [-seed s] [file ...]");
+                System.exit(-1);
+            } else
+                files.add(args[i]);
+        }
+
+        int failed = 0;
+        for (String file : files) {
+            String source = read(file);
+            String diff = diff(source);
+            System.out.println(file + ": " + (diff == null ? "same" : diff));
+            if (diff != null)
+                failed++;
+        }
+        Random rnd = new Random(seed);
+        for (int i = 0; i < random; i++) {
+            String source = randomSource(rnd);
+            String diff = diff(source);
+            if (diff != null) {
+                System.out.println("random source " + i + ": " + diff);
+                System.out.println(source);
+                failed++;
+            }
+        }
+        if (random > 0)
+            System.out.println(random + " random sources checked");
+        if (failed > 0) {
+            System.out.println(failed + " differ");
+            System.exit(1);
+        }
+    }
+
+    private static String read(String file) throws IOException {
+        Reader in = SourceReader.open(file);
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[1 << 16];
+        int n;
+        while ((n = in.read(buf, 0, buf.length)) != -1)
+            sb.append(buf, 0, n);
+        return sb.toString();
+    }
+
+    private static String randomSource(Random rnd) {
+        StringBuilder sb = new StringBuilder();
+        int n = rnd.nextInt(40);
+        for (int i = 0; i < n; i++)
+            sb.append(PIECES[rnd.nextInt(PIECES.length)]);
+        return sb.toString();
+    }
+
+    // The first difference, or null when there is none
+    static String diff(String source) throws Exception {
+        ByteArrayOutputStream jlexOut = new ByteArrayOutputStream(), fastOut = new ByteArrayOutputStream();
+        Yylex jlex = new Yylex(new StringReader(source), new CompileContext(new PrintStream(jlexOut)));
+        FastScanner fast = new FastScanner(new StringReader(source), new CompileContext(new PrintStream(fastOut)));
+        for (int i = 0; ; i++) {
+            Symbol a = jlex.next_token(), b = fast.next_token();
+            String x = describe(a), y = describe(b);
+            if (!x.equals(y))
+                return "token " + i + ": Yylex " + x + ", FastScanner " + y;
+            if (a.sym == sym.EOF)
+                break;
+        }
+        if (!jlexOut.toString().equals(fastOut.toString()))
+            return "diagnostics: Yylex\n" + jlexOut + "FastScanner\n" + fastOut;
+
+        TokenStream[] streams = new TokenStream[2];
+        for (int k = 0; k < 2; k++) {
+            CompileContext ctx = new CompileContext(new PrintStream(new ByteArrayOutputStream()));
+            ctx.fastScanner = k == 1;
+            streams[k] = TokenStream.scan(new StringReader(source), ctx);
+        }
+        TokenStream s = streams[0], t = streams[1];
+        if (s.size() != t.size())
+            return "token stream sizes " + s.size() + " and " + t.size();
+        for (int i = 0; i < s.size(); i++)
+            if (s.offset(i) != t.offset(i) || s.length(i) != t.length(i))
+                return "token stream token " + i + ": Yylex at " + s.offset(i) + "+" + s.length(i)
+                        + ", FastScanner at " + t.offset(i) + "+" + t.length(i);
+
+        for (int k = 0; k < 2; k++) {
+            String d = diffParts(source, k == 1);
+            if (d != null)
+                return (k == 1 ? "FastScanner" : "Yylex") + " in parts: " + d;
+        }
+        return null;
+    }
+
+    private static String diffParts(String source, boolean fastScanner) throws Exception {
+        ByteArrayOutputStream wholeOut = new ByteArrayOutputStream(), partsOut = new ByteArrayOutputStream();
+        CompileContext ctx = new CompileContext(new PrintStream(wholeOut));
+        ctx.fastScanner = fastScanner;
+        TokenStream whole = TokenStream.scan(new StringReader(source), ctx);
+
+        ctx = new CompileContext(new PrintStream(partsOut));
+        ctx.fastScanner = fastScanner;
+        ctx.pool = POOL;
+        TokenStream parts = new TokenStream(source.toCharArray(), source.length());
+        parts.scanParts(ctx, 1 + source.length() / 64);
+
+        if (whole.size() != parts.size())
+            return "sizes " + whole.size() + " and " + parts.size();
+        for (int i = 0; i < whole.size(); i++) {
+            if (whole.kind(i) != parts.kind(i) || whole.line(i) != parts.line(i)
+                    || whole.column(i) != parts.column(i) || whole.offset(i) != parts.offset(i)
+                    || whole.length(i) != parts.length(i) || whole.value(i) != parts.value(i))
+                return "token " + i + ": " + describe(whole.symbol(i)) + " and " + describe(parts.symbol(i));
+        }
+        if (!wholeOut.toString().equals(partsOut.toString()))
+            return "diagnostics\n" + wholeOut + "and\n" + partsOut;
+        return null;
+    }
+
+    private static String describe(Symbol s) {
+        if (s.sym == sym.EOF)
+            return "EOF";
+        TokenVal v = (TokenVal) s.value;
+        String d = s.sym + "@" + v.linenum + ":" + v.charnum;
+        if (v instanceof StringTokenVal)
+            d += " " + ((StringTokenVal) v).strVal + " #" + ((StringTokenVal) v).id;
+        if (v instanceof IntLitTokenVal)
+            d += " " + ((IntLitTokenVal) v).intVal;
+        return d;
+    }
+}
@@ -0,0 +1,550 @@
+import java.io.*;
+import java.util.*;
+
+// **********************************************************************
+// SimpleCGenerator: writes random SimpleC programs, as large as asked for,
+// for benchmarking and soak-testing the compiler.
+//
+// Every program follows c.cup: global scalars, arrays and pointers, function
+// pre-declarations, functions with int and pointer parameters, local
+// declarations at the start of every block, if/if-else/while/for (also with
+// the init or the increment left out), the compound assignments, calls,
+// and print() of expressions and of string literals with escapes. Every name
+// used is declared in an enclosing scope, and every called function is
+// declared or pre-declared before the call.
+//
+// The programs are meant to be compiled, not run: nothing keeps the calls
+// from recursing through the pre-declared functions.
+//
+// The same options and seed always give the same program. The program is
+// written function by function as it is generated, so only the scopes of
+// the function being written are held in memory, whatever its size.
+//
+// usage: SimpleCGenerator [-seed n] [-size n[K|M|G]] [-depth n] [-fanout n]
+//                         [-ids n] [-strings p] [-o file]
+//
+//   -size     stop adding functions once this many bytes are written
+//   -depth    maximum nesting of if/while/for statements
+//   -fanout   maximum number of operands of one expression
+//   -ids      number of distinct variable names the program draws from
+//   -strings  fraction of the simple statements that print a string literal
+// **********************************************************************
+public class SimpleCGenerator {
+    private static final String[] WORDS = {"alpha", "beta", "count", "index", "value", "sum",
+            "total", "next", "prev", "temp", "result", "data", "node", "size", "left", "right"};
+    private static final String[] ESCAPES = {"\\n", "\\t", "\\\"", "\\\\", "\\'"};
+    private static final String[] ARITH = {"+", "-", "*", "/", "%"};
+    private static final String[] COMPARE = {"==", "!=", "<", ">", "<=", ">="};
+    private static final String[] ASSIGN = {"=", "+=", "-=", "*=", "/="};
+    private static final int ARRAY_LENGTH = 16;
+
+    // Options
+    private long seed = 1;
+    private long size = 1 << 20;
+    private int depth = 4;
+    private int fanout = 4;
+    private int ids = 32;
+    private double strings = 0.1;
+
+    private Random rnd;
+    private Writer out;
+    private long written;
+    private String[] pool;
+
+    // A function signature; params[i] is the number of '*' of parameter i
+    private static class Function {
+        String name;
+        boolean isVoid;
+        int pointers;
+        int[] params;
+    }
+
+    // the functions declared so far; the first defined of them have bodies
+    private List<Function> functions = new ArrayList<Function>();
+    private int defined;
+
+    // The variables of the open scopes, innermost last: name -> number of
+    // '*' (0 for an int), or ARRAY for an int array
+    private static final int ARRAY = -1;
+    private List<Map<String, Integer>> scopes = new ArrayList<Map<String, Integer>>();
+
+    // the loop counters in use, which the loop bodies must leave alone
+    private Set<String> counters = new HashSet<String>();
+
+    private StringBuilder line = new StringBuilder();
+    private int indent;
+
+    public SimpleCGenerator() {
+    }
+
+    // The default options, but for the seed and the size
+    public SimpleCGenerator(long seed, long size) {
+        this.seed = seed;
+        this.size = size;
+    }
+
+    public static void main(String[] args) throws IOException {
+        SimpleCGenerator gen = new SimpleCGenerator();
+        String target = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                usage();
+            } else if (arg.equals("-seed")) {
+                gen.seed = Long.parseLong(args[++i]);
+            } else if (arg.equals("-size")) {
+                gen.size = parseSize(args[++i]);
+            } else if (arg.equals("-depth")) {
+                gen.depth = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-fanout")) {
+                gen.fanout = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (arg.equals("-ids")) {
+                gen.ids = Math.max(3, Integer.parseInt(args[++i]));
+            } else if (arg.equals("-strings")) {
+                gen.strings = Double.parseDouble(args[++i]);
+            } else if (arg.equals("-o")) {
+                target = args[++i];
+            } else {
+                usage();
+            }
+        }
+
+        Writer out = new BufferedWriter(target == null ? new OutputStreamWriter(System.out, "US-ASCII")
+                : new OutputStreamWriter(new FileOutputStream(target), "US-ASCII"), 1 << 16);
+        gen.generate(out);
+        out.close();
+    }
+
+    private static void usage() {
+        System.err.println("usage: SimpleCGenerator [-seed n] [-size n[K|M|G]] [-depth n] [-fanout n]"
+                + " [-ids n] [-strings p] [-o file]");
+        System.exit(-1);
+    }
+
+    private static long parseSize(String s) {
+        char unit = Character.toUpperCase(s.charAt(s.length() - 1));
+        int shift = unit == 'K' ? 10 : unit == 'M' ? 20 : unit == 'G' ? 30 : 0;
+        if (shift != 0)
+            s = s.substring(0, s.length() - 1);
+        return Long.parseLong(s) << shift;
+    }
+
+    // **********************************************************************
+    // Program
+    // **********************************************************************
+    public void generate(Writer out) throws IOException {
+        this.out = out;
+        rnd = new Random(seed);
+        written = 0;
+
+        // Names of the pool are made unique by their index; the '_' keeps them
+        // apart from the function names and the loop counters
+        pool = new String[ids];
+        for (int i = 0; i < ids; i++)
+            pool[i] = WORDS[rnd.nextInt(WORDS.length)] + "_" + Integer.toString(i, 36);
+
+        emit("// generated by SimpleCGenerator -seed " + seed + " -size " + size + " -depth " + depth
+                + " -fanout " + fanout + " -ids " + ids + " -strings " + strings);
+
+        // Globals: a quarter of the pool, at least one of each kind
+        openScope();
+        int globals = Math.max(3, ids / 4);
+        for (int i = 0; i < globals; i++)
+            declare(pool[i], i == 0 ? ARRAY : i == 1 ? 1 : i == 2 ? 0 : variableKind());
+        emit("");
+
+        while (written < size) {
+            // Pre-declare a few of the coming functions now and then
+            if (rnd.nextInt(4) == 0) {
+                for (int n = 1 + rnd.nextInt(3); n > 0; n--) {
+                    Function f = newFunction();
+                    emit(signature(f) + ";");
+                }
+                emit("");
+            }
+            // functions are defined in the order they were declared
+            function(defined < functions.size() ? functions.get(defined) : newFunction());
+        }
+
+        // main calls what there is
+        openScope();
+        emit("void main() {");
+        indent++;
+        declareLocals(2);
+        for (int i = 0; i < 8 && !functions.isEmpty(); i++)
+            emit(call(functions.get(rnd.nextInt(functions.size())), 1) + ";");
+        emit("print(\"done\\n\");");
+        indent--;
+        emit("}");
+        closeScope();
+        closeScope();
+        out.flush();
+    }
+
+    private Function newFunction() {
+        Function f = new Function();
+        f.name = "f" + functions.size();
+        f.isVoid = rnd.nextInt(4) == 0;
+        f.pointers = f.isVoid || rnd.nextInt(6) != 0 ? 0 : 1;
+        f.params = new int[rnd.nextInt(4)];
+        for (int i = 0; i < f.params.length; i++)
+            f.params[i] = rnd.nextInt(4) == 0 ? 1 : 0;
+        functions.add(f);
+        return f;
+    }
+
+    private String signature(Function f) {
+        StringBuilder sb = new StringBuilder(f.isVoid ? "void " : "int ");
+        for (int i = 0; i < f.pointers; i++)
+            sb.append('*');
+        sb.append(f.name).append('(');
+        for (int i = 0; i < f.params.length; i++) {
+            sb.append(i == 0 ? "" : ", ").append("int ");
+            for (int p = 0; p < f.params[i]; p++)
+                sb.append('*');
+            sb.append('p').append(i);
+        }
+        return sb.append(')').toString();
+    }
+
+    private void function(Function f) throws IOException {
+        defined++;
+        openScope();
+        for (int i = 0; i < f.params.length; i++)
+            scopes.get(scopes.size() - 1).put("p" + i, f.params[i]);
+        emit(signature(f) + " {");
+        indent++;
+
+        // one counter for every level of loops, then the locals
+        for (int d = 0; d < depth; d++)
+            declare("i" + d, 0);
+        declareLocals(2 + rnd.nextInt(4));
+
+        for (int n = 3 + rnd.nextInt(8); n > 0; n--)
+            statement(0);
+        if (f.isVoid) {
+            if (rnd.nextBoolean())
+                emit("return;");
+        } else if (f.pointers > 0) {
+            emit("return " + pointer() + ";");
+        } else {
+            emit("return " + exp(0) + ";");
+        }
+
+        indent--;
+        emit("}");
+        emit("");
+        closeScope();
+    }
+
+    // **********************************************************************
+    // Statements
+    // **********************************************************************
+    private void statement(int level) throws IOException {
+        int kind = rnd.nextInt(level < depth ? 10 : 6);
+        switch (kind) {
+        case 0:
+        case 1:
+        case 2:
+            emit(assign() + ";");
+            break;
+        case 3:
+            if (rnd.nextDouble() < strings * 2)
+                emit("print(" + string() + ");");
+            else
+                emit("print(" + exp(0) + ");");
+            break;
+        case 4: {
+            if (rnd.nextDouble() < strings) {
+                emit("print(" + string() + ");");
+                break;
+            }
+            Function f = callable();
+            if (f == null)
+                emit(assign() + ";");
+            else
+                emit(call(f, 0) + ";");
+            break;
+        }
+        case 5:
+            emit(pointerAssign() + ";");
+            break;
+        case 6:
+            emit("if (" + condition(0) + ") {");
+            block(level);
+            if (rnd.nextBoolean()) {
+                emit("} else {");
+                block(level);
+            }
+            emit("}");
+            break;
+        case 7: {
+            String i = "i" + level;
+            emit(i + " = 0;");
+            emit("while (" + i + " < " + (1 + rnd.nextInt(10)) + ") {");
+            counters.add(i);
+            block(level);
+            indent++;
+            emit(i + " += 1;");
+            indent--;
+            counters.remove(i);
+            emit("}");
+            break;
+        }
+        default: {
+            // now and then with the init or the increment left out
+            String i = "i" + level;
+            int form = rnd.nextInt(6);
+            if (form == 0)
+                emit(i + " = 0;");
+            emit("for (" + (form == 0 ? "" : i + " = 0") + "; " + i + " < " + (1 + rnd.nextInt(10))
+                    + "; " + (form == 1 ? "" : i + " += 1") + ") {");
+            counters.add(i);
+            block(level);
+            if (form == 1) {
+                indent++;
+                emit(i + " += 1;");
+                indent--;
+            }
+            counters.remove(i);
+            emit("}");
+            break;
+        }
+        }
+    }
+
+    // Local declarations and statements of a nested block
+    private void block(int level) throws IOException {
+        openScope();
+        indent++;
+        declareLocals(rnd.nextInt(3));
+        for (int n = 1 + rnd.nextInt(4); n > 0; n--)
+            statement(level + 1);
+        indent--;
+        closeScope();
+    }
+
+    private String assign() {
+        String op = ASSIGN[rnd.nextInt(ASSIGN.length)];
+        String target = null;
+        int r = rnd.nextInt(6);
+        if (r == 0)
+            target = variable(ARRAY);
+        if (target != null) {
+            target = target + "[" + index() + "]";
+        } else if (r == 1 && (target = variable(1)) != null) {
+            target = "*" + target;
+        } else {
+            target = variable(0);
+            if (target == null)
+                return pointerAssign();
+        }
+        return target + " " + op + " " + (op.equals("/=") ? literal(true) : exp(0));
+    }
+
+    private String pointerAssign() {
+        String p = variable(1);
+        if (p == null)
+            return assign();
+        return p + " = " + pointer();
+    }
+
+    private String call(Function f, int level) {
+        StringBuilder sb = new StringBuilder(f.name).append('(');
+        for (int i = 0; i < f.params.length; i++)
+            sb.append(i == 0 ? "" : ", ").append(f.params[i] > 0 ? pointer() : exp(level + 1));
+        return sb.append(')').toString();
+    }
+
+    // A function declared so far (pre-declared, defined, or the one being
+    // defined), or null
+    private Function callable() {
+        if (functions.isEmpty())
+            return null;
+        return functions.get(rnd.nextInt(functions.size()));
+    }
+
+    // **********************************************************************
+    // Expressions
+    // **********************************************************************
+    private String condition(int level) {
+        String c = exp(level + 1) + " " + COMPARE[rnd.nextInt(COMPARE.length)] + " " + exp(level + 1);
+        int r = rnd.nextInt(6);
+        if (r == 0)
+            return c + " && " + condition(level);
+        if (r == 1)
+            return c + " || " + condition(level);
+        if (r == 2)
+            return "!(" + c + ")";
+        return c;
+    }
+
+    // Up to fanout operands; level bounds the nesting of parentheses and calls
+    private String exp(int level) {
+        int n = 1 + rnd.nextInt(fanout);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                String op = ARITH[rnd.nextInt(ARITH.length)];
+                sb.append(' ').append(op).append(' ');
+                // keep the divisors apart from 0
+                if (op.equals("/") || op.equals("%")) {
+                    sb.append(literal(true));
+                    continue;
+                }
+            }
+            sb.append(operand(level));
+        }
+        return sb.toString();
+    }
+
+    private String operand(int level) {
+        int r = rnd.nextInt(level < 2 ? 10 : 6);
+        String name;
+        switch (r) {
+        case 0:
+        case 1:
+            return literal(false);
+        case 2:
+            if ((name = variable(ARRAY)) != null)
+                return name + "[" + index() + "]";
+            break;
+        case 3:
+            if ((name = variable(1)) != null)
+                return "*" + name;
+            break;
+        case 6:
+            return "(" + exp(level + 1) + ")";
+        case 7:
+            return "-" + operand(level + 1);
+        case 8: {
+            Function f = callable();
+            if (f != null && !f.isVoid && f.pointers == 0)
+                return call(f, level);
+            break;
+        }
+        case 9:
+            return "(" + condition(level + 1) + ")";
+        default:
+            break;
+        }
+        name = variable(0);
+        return name == null ? literal(false) : name;
+    }
+
+    private String index() {
+        if (rnd.nextBoolean())
+            return Integer.toString(rnd.nextInt(ARRAY_LENGTH));
+        String i = variable(0);
+        return i == null ? "0" : i + " % " + ARRAY_LENGTH;
+    }
+
+    private String pointer() {
+        int r = rnd.nextInt(3);
+        String name;
+        if (r == 0 && (name = variable(ARRAY)) != null)
+            return "&" + name + "[" + index() + "]";
+        if (r == 1 && (name = variable(1)) != null)
+            return name;
+        name = variable(0);
+        return "&" + (name == null ? pool[2] : name);
+    }
+
+    private String literal(boolean nonzero) {
+        int r = rnd.nextInt(10);
+        int v = r < 7 ? rnd.nextInt(10) : r < 9 ? rnd.nextInt(1000) : rnd.nextInt(Integer.MAX_VALUE);
+        return Integer.toString(nonzero && v == 0 ? 1 : v);
+    }
+
+    // Half of the literals come from a small set, so some of them repeat
+    private String string() {
+        StringBuilder sb = new StringBuilder("\"");
+        if (rnd.nextBoolean()) {
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]).append(" is ");
+        } else {
+            for (int n = 1 + rnd.nextInt(6); n > 0; n--) {
+                sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+                sb.append(rnd.nextInt(4) == 0 ? ESCAPES[rnd.nextInt(ESCAPES.length)] : " ");
+            }
+        }
+        return sb.append("\\n\"").toString();
+    }
+
+    // **********************************************************************
+    // Scopes
+    // **********************************************************************
+    private void openScope() {
+        scopes.add(new LinkedHashMap<String, Integer>());
+    }
+
+    private void closeScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    private boolean declared(String name) {
+        return scopes.get(scopes.size() - 1).containsKey(name);
+    }
+
+    private int variableKind() {
+        int r = rnd.nextInt(8);
+        return r == 0 ? ARRAY : r == 1 ? 1 : 0;
+    }
+
+    private void declareLocals(int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            String name = pool[rnd.nextInt(ids)];
+            if (!declared(name))
+                declare(name, variableKind());
+        }
+    }
+
+    private void declare(String name, int kind) throws IOException {
+        scopes.get(scopes.size() - 1).put(name, kind);
+        if (kind == ARRAY)
+            emit("int " + name + "[" + ARRAY_LENGTH + "];");
+        else
+            emit("int " + (kind == 1 ? "*" : "") + name + ";");
+    }
+
+    // A visible variable of the given kind, or null; the loop counters in use
+    // are left out of the ints
+    private String variable(int kind) {
+        int tries = 4;
+        while (tries-- > 0) {
+            Map<String, Integer> scope = scopes.get(rnd.nextInt(scopes.size()));
+            if (scope.isEmpty())
+                continue;
+            int k = rnd.nextInt(scope.size());
+            for (String name : scope.keySet()) {
+                if (k-- > 0)
+                    continue;
+                if (kind(name) == kind && !counters.contains(name))
+                    return name;
+                break;
+            }
+        }
+        return null;
+    }
+
+    // The kind of the innermost declaration of name
+    private int kind(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Integer k = scopes.get(i).get(name);
+            if (k != null)
+                return k;
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    // **********************************************************************
+    // Output
+    // **********************************************************************
+    private void emit(String s) throws IOException {
+        line.setLength(0);
+        for (int i = 0; i < indent; i++)
+            line.append("    ");
+        line.append(s).append('\n');
+        out.append(line);
+        written += line.length();
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+// **********************************************************************
+// SourceReader: reads SimpleC source out of a ByteBuffer, normally a
+// memory-mapped file, decoding UTF-8 (in practice ASCII) straight into the
+// scanner's buffer.
+//
+// It extends BufferedReader only because that is the type of the scanner's
+// reader: Yylex uses a BufferedReader as it is instead of wrapping it in
+// another one, so every character is copied once, from the mapping into
+// yy_buffer. Every public method of BufferedReader is implemented over the
+// bytes; the reader given to super is never used.
+//
+// Malformed UTF-8 is read as U+FFFD. Note that the scanner's tables only
+// cover ASCII, which is all SimpleC needs outside of comments and strings.
+// **********************************************************************
+class SourceReader extends BufferedReader {
+    private ByteBuffer bytes;
+    private int pos;
+    private char pending;           // low surrogate still to be returned
+    private boolean ascii = true;
+    private int chars;
+
+    // the state at mark(), markPos < 0 when there is none
+    private int markPos = -1;
+    private char markPending;
+    private boolean markAscii;
+    private int markChars;
+
+    private final char[] one = new char[1];
+
+    public SourceReader(ByteBuffer bytes) {
+        super(new StringReader(""), 1);
+        this.bytes = bytes;
+        pos = bytes.position();
+    }
+
+    // Map the whole file; the mapping stays valid after the channel is closed
+    public static SourceReader open(String file) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(file + " is too large");
+            return new SourceReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } finally {
+            channel.close();
+        }
+    }
+
+    // The bytes read from, from their start
+    public ByteBuffer bytes() {
+        return bytes;
+    }
+
+    // The number of characters read so far
+    public int chars() {
+        return chars;
+    }
+
+    // Whether all that has been read so far was ASCII, in which case the
+    // offset of a character is also the offset of its byte
+    public boolean isAscii() {
+        return ascii;
+    }
+
+    @Override
+    public int read(char[] buf, int off, int len) {
+        if (len == 0)
+            return 0;
+        int n = 0;
+        if (pending != 0) {
+            buf[off + n++] = pending;
+            pending = 0;
+        }
+        ByteBuffer b = bytes;
+        int limit = b.limit();
+        while (n < len && pos < limit) {
+            byte c = b.get(pos++);
+            if (c >= 0) {
+                buf[off + n++] = (char) c;
+                continue;
+            }
+            ascii = false;
+            int cp = decode(c & 0xff);
+            if (cp < 0x10000) {
+                buf[off + n++] = (char) cp;
+            } else {
+                buf[off + n++] = Character.highSurrogate(cp);
+                if (n < len)
+                    buf[off + n++] = Character.lowSurrogate(cp);
+                else
+                    pending = Character.lowSurrogate(cp);
+            }
+        }
+        chars += n;
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public int read() {
+        return read(one, 0, 1) < 0 ? -1 : one[0];
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n < 0)
+            throw new IllegalArgumentException("skip value is negative");
+        char[] buf = new char[(int) Math.min(n, 1 << 13)];
+        long skipped = 0;
+        while (skipped < n) {
+            int k = read(buf, 0, (int) Math.min(n - skipped, buf.length));
+            if (k < 0)
+                break;
+            skipped += k;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean ready() {
+        return pending != 0 || pos < bytes.limit();
+    }
+
+    // A line ends at \n, \r or \r\n, as for BufferedReader
+    @Override
+    public String readLine() {
+        int c = read();
+        if (c < 0)
+            return null;
+        StringBuilder sb = new StringBuilder();
+        while (c >= 0 && c != '\n' && c != '\r') {
+            sb.append((char) c);
+            c = read();
+        }
+        if (c == '\r' && pending == 0 && pos < bytes.limit() && bytes.get(pos) == '\n') {
+            pos++;
+            chars++;
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    // The whole source stays in the buffer, so any readAheadLimit will do
+    @Override
+    public void mark(int readAheadLimit) {
+        if (readAheadLimit < 0)
+            throw new IllegalArgumentException("Read-ahead limit < 0");
+        markPos = pos;
+        markPending = pending;
+        markAscii = ascii;
+        markChars = chars;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        if (markPos < 0)
+            throw new IOException("Stream not marked");
+        pos = markPos;
+        pending = markPending;
+        ascii = markAscii;
+        chars = markChars;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    // The rest of the character whose first byte is lead
+    private int decode(int lead) {
+        int need, cp, min;
+        if (lead >= 0xc2 && lead <= 0xdf) {
+            need = 1;
+            cp = lead & 0x1f;
+            min = 0x80;
+        } else if (lead >= 0xe0 && lead <= 0xef) {
+            need = 2;
+            cp = lead & 0x0f;
+            min = 0x800;
+        } else if (lead >= 0xf0 && lead <= 0xf4) {
+            need = 3;
+            cp = lead & 0x07;
+            min = 0x10000;
+        } else {
+            return 0xfffd;
+        }
+        for (int i = 0; i < need; i++) {
+            if (pos >= bytes.limit() || (bytes.get(pos) & 0xc0) != 0x80)
+                return 0xfffd;
+            cp = cp << 6 | bytes.get(pos++) & 0x3f;
+        }
+        if (cp < min || cp > 0x10ffff || cp >= 0xd800 && cp <= 0xdfff)
+            return 0xfffd;
+        return cp;
+    }
+}
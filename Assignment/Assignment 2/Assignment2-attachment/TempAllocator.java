@@ -0,0 +1,65 @@
+import java.util.*;
+
+// **********************************************************************
+// TempAllocator: renumbers the & temporaries of one function body so that
+// temporaries which are never live at the same time share a slot.
+//
+// Two temporaries interfere when one is written while the other is live.
+// Scanning the body in order, every temporary takes the lowest slot none of
+// its interfering temporaries holds. count() is the number of slots used,
+// i.e. what funci has to declare.
+// **********************************************************************
+class TempAllocator {
+    private int count;
+
+    public int count() {
+        return count;
+    }
+
+    public void allocate(HIRFunction fn) {
+        List<HIRInstr> code = fn.code();
+        HIRLiveness live = new HIRLiveness(fn);
+        int n = live.temps.size();
+
+        // The compiler reuses the same &n in sibling scopes, so interference
+        // is taken from exact liveness rather than from first/last use
+        BitSet[] interfere = new BitSet[n];
+        for (int t = 0; t < n; t++)
+            interfere[t] = new BitSet();
+        for (int i = 0; i < code.size(); i++) {
+            BitSet def = live.def[i];
+            for (int t = def.nextSetBit(0); t >= 0; t = def.nextSetBit(t + 1)) {
+                BitSet out = live.liveOut[i];
+                for (int u = out.nextSetBit(0); u >= 0; u = out.nextSetBit(u + 1)) {
+                    if (u != t) {
+                        interfere[t].set(u);
+                        interfere[u].set(t);
+                    }
+                }
+            }
+        }
+
+        // Temporaries are numbered in order of appearance, which is the
+        // order they are given slots in
+        int[] slot = new int[n];
+        count = 0;
+        for (int t = 0; t < n; t++) {
+            BitSet taken = new BitSet();
+            for (int u = interfere[t].nextSetBit(0); u >= 0 && u < t; u = interfere[t].nextSetBit(u + 1))
+                taken.set(slot[u]);
+            slot[t] = taken.nextClearBit(0);
+            count = Math.max(count, slot[t] + 1);
+        }
+
+        // Rewrite the operands
+        for (HIRInstr in : code) {
+            if (in.op == null)
+                continue;
+            for (int j = 0; j < in.opr.length; j++) {
+                Integer t = live.temps.get(in.opr[j]);
+                if (t != null)
+                    in.opr[j] = HIROperand.temp(slot[t]);
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java_cup.runtime.Symbol;
+
+// **********************************************************************
+// TokenStream: the tokens of one source, scanned without allocating
+// anything per token.
+//
+// The whole source is held in text. Token i has kind (a sym constant),
+// line and column (as in TokenVal), and offset/length of its text in the
+// source, and a value: the interned id of an ID or STRINGLITERAL (see
+// Interner), the value of an INTLITERAL. The arrays are kept in chunks of
+// CHUNK tokens, so they are never copied as the stream grows and a stream
+// of n tokens costs n / CHUNK allocations.
+//
+// A source read by a SourceReader is not copied into text at all: while it
+// is ASCII the offsets of the tokens are offsets into its bytes, which
+// usually are a mapped file. Only a source with other characters in it is
+// decoded into text after the scan, as offsets count characters.
+//
+// When the context asks for it, a long source is scanned in parts on
+// several threads (see scanParts).
+//
+// CUP needs Symbols; scanner() makes them one at a time as the parser asks
+// for them, which is the only place a token turns into objects.
+// **********************************************************************
+class TokenStream {
+    // returned by the scanner in stream mode instead of a Symbol
+    static final Symbol TOKEN = new Symbol(-1);
+
+    private char[] text;
+    private int textLength;
+    private ByteBuffer bytes;
+    private Interner interner;
+
+    private static final int SHIFT = 12, CHUNK = 1 << SHIFT, MASK = CHUNK - 1;
+
+    private int size;
+    private int[][] kind = new int[16][], line = new int[16][], column = new int[16][],
+            offset = new int[16][], length = new int[16][], value = new int[16][];
+
+    public TokenStream(char[] text, int textLength) {
+        this.text = text;
+        this.textLength = textLength;
+    }
+
+    public TokenStream(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    // Read all of source and scan it; errors are reported to the context
+    public static TokenStream scan(Reader source, CompileContext ctx) throws IOException {
+        if (source instanceof SourceReader) {
+            TokenStream tokens = new TokenStream(((SourceReader) source).bytes());
+            tokens.scan(ctx);
+            return tokens;
+        }
+        char[] buf = new char[1 << 16];
+        int n = 0, r;
+        while ((r = source.read(buf, n, buf.length - n)) != -1) {
+            n += r;
+            if (n == buf.length)
+                buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        TokenStream tokens = new TokenStream(buf, n);
+        tokens.scan(ctx);
+        return tokens;
+    }
+
+    // Sources at least twice this long are scanned in parts, when the
+    // context asks for it and there is more than one thread to do it
+    static final int MIN_PART = 1 << 18;
+
+    public void scan(CompileContext ctx) throws IOException {
+        interner = ctx.interner;
+        boolean decode;
+        ForkJoinPool pool = ctx.pool != null ? ctx.pool : ForkJoinPool.commonPool();
+        if (ctx.parallelScan && sourceLength() >= 2 * MIN_PART && pool.getParallelism() > 1) {
+            decode = scanParts(ctx, MIN_PART);
+        } else if (ctx.fastScanner && text != null) {
+            scan(new FastScanner(text, textLength, ctx));
+            decode = false;
+        } else {
+            Reader source = reader();
+            scanFrom(source, ctx);
+            decode = source instanceof SourceReader && !((SourceReader) source).isAscii();
+        }
+        if (decode) {
+            text = new char[bytes.remaining()];
+            textLength = Math.max(0, new SourceReader(bytes).read(text, 0, text.length));
+            bytes = null;
+        }
+    }
+
+    // Scan source into this stream with the scanner the context asks for
+    private void scanFrom(Reader source, CompileContext ctx) throws IOException {
+        if (ctx.fastScanner) {
+            scan(new FastScanner(source, ctx));
+        } else {
+            Yylex lexer = new Yylex(source, ctx);
+            lexer.stream(this);
+            while (lexer.next_token() == TOKEN)
+                ;
+        }
+    }
+
+    private void scan(FastScanner scanner) {
+        scanner.stream(this);
+        while (scanner.next_token() == TOKEN)
+            ;
+    }
+
+    // **********************************************************************
+    // Scanning in parts
+    //
+    // Neither a string literal nor a comment can go on past the end of its
+    // line, so after every newline the scanner is back where it started, on
+    // column 1. The source is cut into parts just after newlines, and every
+    // part is scanned on its own on the pool, with an interner of its own and
+    // its diagnostics kept. The parts are appended in order as they are
+    // done, their lines, offsets and ids moved to where they are in the whole
+    // source, so the stream is the one a single scan gives.
+    // **********************************************************************
+    private static class Part {
+        TokenStream tokens = new TokenStream(null, 0);
+        CompileContext ctx = new CompileContext(null);
+        int lines, chars;
+        boolean decode;
+    }
+
+    // Scan in parts of at least minPart characters, on the context's pool or
+    // the common pool; returns whether the source has to be decoded
+    boolean scanParts(CompileContext ctx, int minPart) {
+        interner = ctx.interner;
+        ForkJoinPool pool = ctx.pool != null ? ctx.pool : ForkJoinPool.commonPool();
+        final boolean fastScanner = ctx.fastScanner;
+        int n = sourceLength();
+        int parts = Math.max(1, Math.min(n / minPart, 4 * pool.getParallelism()));
+        List<Future<Part>> scans = new ArrayList<Future<Part>>();
+        for (int k = 1, from = 0; k <= parts && from < n; k++) {
+            final int start = from, end = k == parts ? n : afterNewline((int) ((long) n * k / parts));
+            if (end <= start)
+                continue;
+            scans.add(pool.submit(new Callable<Part>() {
+                public Part call() throws IOException {
+                    return scanPart(start, end, fastScanner);
+                }
+            }));
+            from = end;
+        }
+
+        int lines = 0, chars = 0;
+        boolean decode = false;
+        try {
+            for (Future<Part> f : scans) {
+                Part part = f.get();
+                TokenStream p = part.tokens;
+                int[] ids = new int[part.ctx.interner.size()];  // id + 1 in the whole source
+                for (int i = 0; i < p.size; i++) {
+                    int k = p.kind(i), v = p.value(i);
+                    if (k == sym.ID || k == sym.STRINGLITERAL) {
+                        if (ids[v] == 0)
+                            ids[v] = ctx.interner.intern(part.ctx.interner.name(v)) + 1;
+                        v = ids[v] - 1;
+                    }
+                    add(k, p.line(i) + lines, p.column(i), p.offset(i) + chars, p.length(i), v);
+                }
+                part.ctx.errors.replay(ctx.errors, lines);
+                lines += part.lines;
+                chars += part.chars;
+                decode |= part.decode;
+            }
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+        return decode;
+    }
+
+    private Part scanPart(int start, int end, boolean fastScanner) throws IOException {
+        Part part = new Part();
+        part.ctx.errors = new Errors();
+        part.ctx.fastScanner = fastScanner;
+        part.tokens.interner = part.ctx.interner;
+        Reader source;
+        if (text != null)
+            source = new CharArrayReader(text, start, end - start);
+        else
+            source = new SourceReader(bytes.slice(bytes.position() + start, end - start));
+        part.tokens.scanFrom(source, part.ctx);
+        for (int i = start; i < end; i++)
+            if (charAt(i) == '\n')
+                part.lines++;
+        if (source instanceof SourceReader) {
+            part.chars = ((SourceReader) source).chars();
+            part.decode = !((SourceReader) source).isAscii();
+        } else {
+            part.chars = end - start;
+        }
+        return part;
+    }
+
+    // The length of the source, in characters or, when it is bytes, in bytes
+    private int sourceLength() {
+        return text != null ? textLength : bytes.remaining();
+    }
+
+    private int charAt(int i) {
+        return text != null ? text[i] : bytes.get(bytes.position() + i);
+    }
+
+    // Where the line that i is on ends, just after its newline
+    private int afterNewline(int i) {
+        int n = sourceLength();
+        while (i < n && charAt(i) != '\n')
+            i++;
+        return Math.min(i + 1, n);
+    }
+
+    Reader reader() {
+        if (bytes != null)
+            return new SourceReader(bytes);
+        return new CharArrayReader(text, 0, textLength);
+    }
+
+    void add(int k, int l, int c, int off, int len, int val) {
+        int chunk = size >> SHIFT, i = size & MASK;
+        if (i == 0) {
+            if (chunk == kind.length) {
+                int n = chunk * 2;
+                kind = Arrays.copyOf(kind, n);
+                line = Arrays.copyOf(line, n);
+                column = Arrays.copyOf(column, n);
+                offset = Arrays.copyOf(offset, n);
+                length = Arrays.copyOf(length, n);
+                value = Arrays.copyOf(value, n);
+            }
+            kind[chunk] = new int[CHUNK];
+            line[chunk] = new int[CHUNK];
+            column[chunk] = new int[CHUNK];
+            offset[chunk] = new int[CHUNK];
+            length[chunk] = new int[CHUNK];
+            value[chunk] = new int[CHUNK];
+        }
+        kind[chunk][i] = k;
+        line[chunk][i] = l;
+        column[chunk][i] = c;
+        offset[chunk][i] = off;
+        length[chunk][i] = len;
+        value[chunk][i] = val;
+        size++;
+    }
+
+    // **********************************************************************
+    // Access
+    // **********************************************************************
+    public int size() {
+        return size;
+    }
+
+    public int kind(int i) {
+        return kind[i >> SHIFT][i & MASK];
+    }
+
+    public int line(int i) {
+        return line[i >> SHIFT][i & MASK];
+    }
+
+    public int column(int i) {
+        return column[i >> SHIFT][i & MASK];
+    }
+
+    public int offset(int i) {
+        return offset[i >> SHIFT][i & MASK];
+    }
+
+    public int length(int i) {
+        return length[i >> SHIFT][i & MASK];
+    }
+
+    // The interned id of an ID or STRINGLITERAL, the value of an INTLITERAL
+    public int value(int i) {
+        return value[i >> SHIFT][i & MASK];
+    }
+
+    // The text of token i, as yytext() would have given it
+    public String text(int i) {
+        if (text != null)
+            return new String(text, offset(i), length(i));
+        char[] c = new char[length(i)];
+        for (int j = 0, off = bytes.position() + offset(i); j < c.length; j++)
+            c[j] = (char) bytes.get(off + j);
+        return new String(c);
+    }
+
+    // The Symbol the scanner would have returned for token i
+    public Symbol symbol(int i) {
+        int k = kind(i);
+        if (k == sym.ID || k == sym.STRINGLITERAL)
+            return new Symbol(k, new StringTokenVal(line(i), column(i), interner.name(value(i)), value(i)));
+        if (k == sym.INTLITERAL)
+            return new Symbol(k, new IntLitTokenVal(line(i), column(i), value(i)));
+        return new Symbol(k, new TokenVal(line(i), column(i)));
+    }
+
+    // The tokens as a scanner for CUP, ending with a new EOF every time
+    // one is asked for, as Yylex does
+    public java_cup.runtime.Scanner scanner() {
+        return new java_cup.runtime.Scanner() {
+            private int next;
+
+            public Symbol next_token() {
+                return next < size ? symbol(next++) : new Symbol(sym.EOF);
+            }
+        };
+    }
+}
@@ -23,53 +23,58 @@ class IntLitTokenVal extends TokenVal {
   }
 }
 class BadEscapedChar extends Exception {
+  // where in the literal the backslash of the bad escape is
+  int offset;
+  BadEscapedChar(int offset) {
+    this.offset = offset;
+  }
 }
 //TokenVal for both STRINGLITERAL and ID
 class StringTokenVal extends TokenVal {
   String strVal;
-  StringTokenVal(int l, int c, String s) {
+  // the id strVal was interned as, see Interner
+  int id;
+  StringTokenVal(int l, int c, String s, int id) {
     super(l, c);
     strVal = s;
+    this.id = id;
   }
   //process string s and return a String with all the escaped characters expanded
   //throws BadEscapedChar if a bad escaped character is found
   public static String checkEscapedChars(String s) throws BadEscapedChar {
-    // index 0 is the opening quote, so don't include it.
-    int start = 1;
-    int slash = s.indexOf("\\");
-    String strVal = "";
-    while (slash != -1) {
-      strVal = strVal + s.substring(start, slash);
-      // if the slash is the last character in the string then we are done.
-      if (slash == s.length() - 1) throw new BadEscapedChar();
-      char c = s.charAt(slash + 1);
-      if (c == 'n') {
-        strVal = strVal + "\n";
-      } else if (c == 't') {
-        strVal = strVal + "\t";
-      } else if (c == '"') {
-        strVal = strVal + "\"";
-      } else if (c == '\\') {
-        strVal = strVal + "\\";
-      } else if (c == '\'') {
-        strVal = strVal + "'";
-      } else {
-        throw new BadEscapedChar();
+    StringBuilder strVal = new StringBuilder(s.length());
+    int bad = decode(s.toCharArray(), 0, s.length(), strVal);
+    if (bad >= 0) throw new BadEscapedChar(bad);
+    return strVal.toString();
+  }
+  // Expand the escapes of the literal in buf[off, off + len) into out, or
+  // only check them when out is null, in one pass over it. The first
+  // character is the opening quote and the last one, unless it is escaped,
+  // the closing quote; neither is included. Returns -1 when all escapes are
+  // good, otherwise the offset in the literal of the first bad backslash.
+  static int decode(char[] buf, int off, int len, StringBuilder out) {
+    int end = off + len;
+    for (int i = off + 1; i < end; i++) {
+      char c = buf[i];
+      if (c != '\\') {
+        if (out != null && i < end - 1) out.append(c);
+        continue;
       }
-      start = slash + 2;
-      slash = s.indexOf("\\", slash + 2);
+      // a slash that is the last character escapes nothing
+      if (i == end - 1) return i - off;
+      switch (buf[++i]) {
+        case 'n': c = '\n'; break;
+        case 't': c = '\t'; break;
+        case '"': c = '"'; break;
+        case '\\': c = '\\'; break;
+        case '\'': c = '\''; break;
+        default: return i - 1 - off;
+      }
+      if (out != null) out.append(c);
     }
-    //the last character is the closing quote, so don't include.
-    if (start < s.length() - 1)
-      strVal = strVal + s.substring(start, s.length() - 1);
-    return strVal;
+    return -1;
   }
 }
-// The following class is used to keep track of the character number at which
-// the current token starts on its line.
-class CharNum {
-  static int num=1;
-}
 
 
 class Yylex implements java_cup.runtime.Scanner {
@@ -81,12 +86,80 @@ class Yylex implements java_cup.runtime.Scanner {
 	private final int YY_END = 2;
 	private final int YY_NO_ANCHOR = 4;
 	private final char YY_EOF = '\uFFFF';
+
+// The compilation this scanner belongs to; it receives the diagnostics
+private CompileContext ctx;
+// The character number at which the current token starts on its line
+private int charNum = 1;
+// When set, tokens are appended to it instead of being returned as Symbols
+private TokenStream stream;
+// The scanner starts with a buffer this large rather than JLex's 512 chars,
+// so that it refills it less often
+private static final int BUFFER_SIZE = 1 << 13;
+// A BufferedReader, a SourceReader in particular, is read from as it is
+// rather than through another buffer
+Yylex(java.io.Reader reader, CompileContext ctx) {
+  this();
+  if (reader == null)
+    throw new Error("Error: Bad input stream initializer.");
+  yy_reader = reader instanceof java.io.BufferedReader
+      ? (java.io.BufferedReader) reader : new java.io.BufferedReader(reader);
+  yy_buffer = new char[BUFFER_SIZE];
+  this.ctx = ctx;
+}
+// Append the tokens to stream from now on
+void stream(TokenStream stream) {
+  this.stream = stream;
+}
+private Symbol token(int kind) {
+  return token(kind, 0);
+}
+// The token just matched, with its value: the interned id of an ID or
+// STRINGLITERAL, the value of an INTLITERAL. In stream mode nothing is
+// allocated for it and TokenStream.TOKEN is returned; otherwise it becomes
+// a Symbol for CUP.
+private Symbol token(int kind, int value) {
+  int line = yyline + 1, col = charNum;
+  charNum += yylength();
+  if (stream != null) {
+    stream.add(kind, line, col, yychar, yylength(), value);
+    return TokenStream.TOKEN;
+  }
+  if (kind == sym.ID || kind == sym.STRINGLITERAL)
+    return new Symbol(kind, new StringTokenVal(line, col, ctx.interner.name(value), value));
+  if (kind == sym.INTLITERAL)
+    return new Symbol(kind, new IntLitTokenVal(line, col, value));
+  return new Symbol(kind, new TokenVal(line, col));
+}
+// The lexeme just matched, interned without making a String of it when it
+// has been seen before
+private int intern() {
+  return ctx.interner.intern(yy_buffer, yy_buffer_start, yylength());
+}
+// The value of the integer literal just matched, read off the buffer
+private int intValue() {
+  long val = 0;
+  for (int i = yy_buffer_start; i < yy_buffer_end; i++) {
+    val = val * 10 + (yy_buffer[i] - '0');
+    if (val > Integer.MAX_VALUE) {
+      ctx.errors.warn(yyline+1, charNum, "integer literal too large; using max value");
+      return Integer.MAX_VALUE;
+    }
+  }
+  return (int) val;
+}
+// The offset in the string literal just matched of its first bad escape,
+// -1 when it has none
+private int badEscape() {
+  return StringTokenVal.decode(yy_buffer, yy_buffer_start, yylength(), null);
+}
 	private java.io.BufferedReader yy_reader;
 	private int yy_buffer_index;
 	private int yy_buffer_read;
 	private int yy_buffer_start;
 	private int yy_buffer_end;
 	private char yy_buffer[];
+	private int yychar;
 	private int yyline;
 	private int yy_lexical_state;
 
@@ -112,6 +185,7 @@ class Yylex implements java_cup.runtime.Scanner {
 		yy_buffer_index = 0;
 		yy_buffer_start = 0;
 		yy_buffer_end = 0;
+		yychar = 0;
 		yyline = 0;
 		yy_lexical_state = YYINITIAL;
 	}
@@ -173,6 +247,7 @@ class Yylex implements java_cup.runtime.Scanner {
 		if ((byte) '\n' == yy_buffer[yy_buffer_start]) {
 			++yyline;
 		}
+		++yychar;
 		++yy_buffer_start;
 	}
 	private void yy_pushback () {
@@ -185,6 +260,8 @@ class Yylex implements java_cup.runtime.Scanner {
 				++yyline;
 			}
 		}
+		yychar = yychar
+			+ yy_buffer_index - yy_buffer_start;
 		yy_buffer_start = yy_buffer_index;
 	}
 	private void yy_mark_end () {
@@ -418,445 +495,284 @@ return new Symbol(sym.EOF);
 					}
 					switch (yy_last_accept_state) {
 					case 1:
-						{ Errors.fatal(yyline+1, CharNum.num, "ignoring illegal character: " + yytext());
-    CharNum.num++; }
+						{ ctx.errors.fatal(yyline+1, charNum, "ignoring illegal character: " + yytext());
+    charNum++; }
 					case -2:
 						break;
 					case 2:
-						{CharNum.num += yytext().length(); }
+						{charNum += yylength(); }
 					case -3:
 						break;
 					case 3:
-						{CharNum.num = 1;}
+						{charNum = 1;}
 					case -4:
 						break;
 					case 4:
-						{CharNum.num = 1;}
+						{charNum = 1;}
 					case -5:
 						break;
 					case 5:
-						{ Symbol s = new Symbol(sym.NOT, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.NOT); }
 					case -6:
 						break;
 					case 6:
-						{ CharNum.num += yytext().length(); }
+						{ charNum += yylength(); }
 					case -7:
 						break;
 					case 7:
-						{ Symbol s = new Symbol(sym.PERCENT, new TokenVal(yyline+1, CharNum.num));
-      CharNum.num += 1;
-      return s; }
+						{ return token(sym.PERCENT); }
 					case -8:
 						break;
 					case 8:
-						{ Symbol s = new Symbol(sym.ADDROF, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 1;
-     return s; }
+						{ return token(sym.ADDROF); }
 					case -9:
 						break;
 					case 9:
-						{ Symbol s = new Symbol(sym.LPAREN, new TokenVal(yyline+1, CharNum.num));
-      CharNum.num += 1;
-      return s; }
+						{ return token(sym.LPAREN); }
 					case -10:
 						break;
 					case 10:
-						{ Symbol s = new Symbol(sym.RPAREN, new TokenVal(yyline+1, CharNum.num));
-      CharNum.num += 1;
-      return s; }
+						{ return token(sym.RPAREN); }
 					case -11:
 						break;
 					case 11:
-						{ Symbol s = new Symbol(sym.TIMES, new TokenVal(yyline+1, CharNum.num));
-      CharNum.num += 1;
-      return s; }
+						{ return token(sym.TIMES); }
 					case -12:
 						break;
 					case 12:
-						{ Symbol s = new Symbol(sym.PLUS, new TokenVal(yyline+1, CharNum.num));
-      CharNum.num += 1;
-      return s; }
+						{ return token(sym.PLUS); }
 					case -13:
 						break;
 					case 13:
-						{ Symbol s = new Symbol(sym.COMMA, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.COMMA); }
 					case -14:
 						break;
 					case 14:
-						{ Symbol s = new Symbol(sym.MINUS, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.MINUS); }
 					case -15:
 						break;
 					case 15:
-						{ Symbol s = new Symbol(sym.DIVIDE, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.DIVIDE); }
 					case -16:
 						break;
 					case 16:
-						{
-   int val;
-   try {
-     val = (new Integer(yytext())).intValue();
-   } catch (NumberFormatException e) {
-     Errors.warn(yyline+1, CharNum.num, "integer literal too large; using max value");
-     val = Integer.MAX_VALUE;
-   }
-   Symbol s = new Symbol(sym.INTLITERAL, new IntLitTokenVal(yyline+1, CharNum.num, val));
-   CharNum.num += yytext().length();
-   return s;
-}
+						{ return token(sym.INTLITERAL, intValue()); }
 					case -17:
 						break;
 					case 17:
-						{ Symbol s = new Symbol(sym.SEMICOLON, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.SEMICOLON); }
 					case -18:
 						break;
 					case 18:
-						{ Symbol s = new Symbol(sym.LESS, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.LESS); }
 					case -19:
 						break;
 					case 19:
-						{ Symbol s = new Symbol(sym.ASSIGN, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.ASSIGN); }
 					case -20:
 						break;
 					case 20:
-						{ Symbol s = new Symbol(sym.GREATER, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.GREATER); }
 					case -21:
 						break;
 					case 21:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -22:
 						break;
 					case 22:
-						{ Symbol s = new Symbol(sym.LSQBRACKET, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.LSQBRACKET); }
 					case -23:
 						break;
 					case 23:
-						{ Symbol s = new Symbol(sym.RSQBRACKET, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.RSQBRACKET); }
 					case -24:
 						break;
 					case 24:
-						{ Symbol s = new Symbol(sym.LCURLY, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.LCURLY); }
 					case -25:
 						break;
 					case 25:
-						{ Symbol s = new Symbol(sym.RCURLY, new TokenVal(yyline+1, CharNum.num));
-    CharNum.num += 1;
-    return s; }
+						{ return token(sym.RCURLY); }
 					case -26:
 						break;
 					case 26:
-						{ Symbol s = new Symbol(sym.NOTEQUALS, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.NOTEQUALS); }
 					case -27:
 						break;
 					case 27:
 						{
-    try {
-      StringTokenVal.checkEscapedChars(yytext());
-      Errors.fatal(yyline+1, CharNum.num, "ignoring unterminated string literal");
-    } catch (BadEscapedChar e) {
-      Errors.fatal(yyline+1, CharNum.num, "ignoring unterminated string literal with bad escaped character");
-    }
+    int bad = badEscape();
+    if (bad < 0)
+      ctx.errors.fatal(yyline+1, charNum, "ignoring unterminated string literal");
+    else
+      ctx.errors.fatal(yyline+1, charNum + bad, "ignoring unterminated string literal with bad escaped character");
+    // JLex's $ takes the newline out of yytext() (yy_pushback() only moves
+    // yy_buffer_end back) but scanning goes on after it, so the \n rule
+    // never sees this newline
+    charNum = 1;
 }
 					case -28:
 						break;
 					case 28:
 						{
-    try {
-      String str = StringTokenVal.checkEscapedChars(yytext());
-      //Symbol s = new Symbol(sym.STRINGLITERAL, new StringTokenVal(yyline+1, CharNum.num, str));
-      Symbol s = new Symbol(sym.STRINGLITERAL, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-      CharNum.num += yytext().length();
-      return s;
-    } catch (BadEscapedChar e) {
-      Errors.fatal(yyline+1, CharNum.num, "ignoring string literal with bad escaped character");
-      CharNum.num += yytext().length();
-    }
+    // the value is the literal as written, quotes and escapes included, as
+    // HIR expands the escapes itself; they are only checked here
+    int bad = badEscape();
+    if (bad < 0)
+      return token(sym.STRINGLITERAL, intern());
+    ctx.errors.fatal(yyline+1, charNum + bad, "ignoring string literal with bad escaped character");
+    charNum += yylength();
 }
 					case -29:
 						break;
 					case 29:
-						{ Symbol s = new Symbol(sym.AND, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.AND); }
 					case -30:
 						break;
 					case 30:
-						{ Symbol s = new Symbol(sym.TIMESEQL, new TokenVal(yyline+1, CharNum.num));
-       CharNum.num += 2;
-       return s; }
+						{ return token(sym.TIMESEQL); }
 					case -31:
 						break;
 					case 31:
-						{ Symbol s = new Symbol(sym.PLUSEQL, new TokenVal(yyline+1, CharNum.num));
-       CharNum.num += 2;
-       return s; }
+						{ return token(sym.PLUSEQL); }
 					case -32:
 						break;
 					case 32:
-						{ Symbol s = new Symbol(sym.MINUSEQL, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.MINUSEQL); }
 					case -33:
 						break;
 					case 33:
-						{ Symbol s = new Symbol(sym.DIVEQL, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.DIVEQL); }
 					case -34:
 						break;
 					case 34:
-						{ Symbol s = new Symbol(sym.LESSEQ, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.LESSEQ); }
 					case -35:
 						break;
 					case 35:
-						{ Symbol s = new Symbol(sym.EQUALS, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.EQUALS); }
 					case -36:
 						break;
 					case 36:
-						{ Symbol s = new Symbol(sym.GREATEREQ, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.GREATEREQ); }
 					case -37:
 						break;
 					case 37:
-						{ Symbol s = new Symbol(sym.IF, new TokenVal(yyline+1, CharNum.num));
-     CharNum.num += 2;
-     return s; }
+						{ return token(sym.IF); }
 					case -38:
 						break;
 					case 38:
-						{ Symbol s = new Symbol(sym.OR, new TokenVal(yyline+1, CharNum.num));
-       CharNum.num += 2;
-       return s; }
+						{ return token(sym.OR); }
 					case -39:
 						break;
 					case 39:
-						{ Symbol s = new Symbol(sym.FOR, new TokenVal(yyline+1, CharNum.num));
-      CharNum.num += 3;
-      return s; }
+						{ return token(sym.FOR); }
 					case -40:
 						break;
 					case 40:
-						{ Symbol s = new Symbol(sym.INT, new TokenVal(yyline+1, CharNum.num));
-      CharNum.num += 3;
-      return s; }
+						{ return token(sym.INT); }
 					case -41:
 						break;
 					case 41:
-						{ Symbol s = new Symbol(sym.ELSE, new TokenVal(yyline+1, CharNum.num));
-       CharNum.num += 4;
-       return s; }
+						{ return token(sym.ELSE); }
 					case -42:
 						break;
 					case 42:
-						{ Symbol s = new Symbol(sym.VOID, new TokenVal(yyline+1, CharNum.num));
-       CharNum.num += 4;
-       return s; }
+						{ return token(sym.VOID); }
 					case -43:
 						break;
 					case 43:
-						{ Symbol s = new Symbol(sym.WHILE, new TokenVal(yyline+1, CharNum.num));
-        CharNum.num += 5;
-        return s; }
+						{ return token(sym.WHILE); }
 					case -44:
 						break;
 					case 44:
-						{ Symbol s = new Symbol(sym.RETURN, new TokenVal(yyline+1, CharNum.num));
-         CharNum.num += 6;
-         return s; }
+						{ return token(sym.RETURN); }
 					case -45:
 						break;
 					case 46:
-						{ Errors.fatal(yyline+1, CharNum.num, "ignoring illegal character: " + yytext());
-    CharNum.num++; }
+						{ ctx.errors.fatal(yyline+1, charNum, "ignoring illegal character: " + yytext());
+    charNum++; }
 					case -46:
 						break;
 					case 47:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -47:
 						break;
 					case 49:
-						{ Errors.fatal(yyline+1, CharNum.num, "ignoring illegal character: " + yytext());
-    CharNum.num++; }
+						{ ctx.errors.fatal(yyline+1, charNum, "ignoring illegal character: " + yytext());
+    charNum++; }
 					case -48:
 						break;
 					case 50:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -49:
 						break;
 					case 51:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -50:
 						break;
 					case 52:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -51:
 						break;
 					case 53:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -52:
 						break;
 					case 54:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -53:
 						break;
 					case 55:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -54:
 						break;
 					case 56:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -55:
 						break;
 					case 57:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -56:
 						break;
 					case 58:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -57:
 						break;
 					case 59:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -58:
 						break;
 					case 60:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -59:
 						break;
 					case 61:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -60:
 						break;
 					case 62:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -61:
 						break;
 					case 63:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -62:
 						break;
 					case 64:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -63:
 						break;
 					case 65:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -64:
 						break;
 					case 66:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -65:
 						break;
 					case 67:
-						{
-    Symbol s = new Symbol(sym.ID, new StringTokenVal(yyline+1, CharNum.num, yytext()));
-    CharNum.num += yytext().length();
-    return s;
-}
+						{ return token(sym.ID, intern()); }
 					case -66:
 						break;
 					default:
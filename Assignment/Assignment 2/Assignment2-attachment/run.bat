@@ -1,4 +1,4 @@
 java -cp jlex.jar JLex.Main c.jlex
-java -cp javacup.jar java_cup.Main c.cup
+java -cp javacup.jar java_cup.Main -compact_red c.cup
 javac -classpath jlex.jar;javacup.jar *.java
 java -classpath .;jlex.jar;javacup.jar HIRCompiler %1 %2
\ No newline at end of file
@@ -0,0 +1,2 @@
+javac -classpath jlex.jar;javacup.jar *.java
+java -classpath .;jlex.jar;javacup.jar ScannerDiff %*
\ No newline at end of file
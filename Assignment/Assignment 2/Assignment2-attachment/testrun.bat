@@ -1,3 +1,3 @@
 javac -classpath jlex.jar;javacup.jar *.java
 java -classpath .;jlex.jar;javacup.jar HIRCompiler %1 %2
-java -jar HIRInterpreter.jar %2
\ No newline at end of file
+java -classpath . HIRVM %2
\ No newline at end of file